@@ -0,0 +1,235 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * LRU cache of connected channels for hot unicast destinations
+ *
+ * Created 2025-07-04
+ */
+package org.miktim.udpchannel;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ Sends to the cached destinations go through the connected channel bound
+ to the same local address (reuse enabled) via write(), skipping the per
+ datagram address checks and route lookups of the unconnected send().
+ A destination is cached after ADMIT_COUNT sends. A destination is not
+ cached if its channel failed to open: the sends go through the owner channel.
+ Connected channels take the datagrams of their peers, so the cache is used
+ only while the owner listener receives them (not by SocketHandler).
+ The least recently used and idle (no sends and no receives) channels are
+ passed to the listener, which drains them before closing. Stopping the
+ listener closes the cached channels: without drain, datagrams queued
+ in them are lost.
+ */
+public final class ConnectedCache {
+
+    public static final int ADMIT_COUNT = 8;
+    static final int REJECTED = -1; // candidate count: failed to open
+
+    static final class Entry {
+
+        final DatagramChannel channel;
+        long lastNanos;
+
+        Entry(DatagramChannel channel, long now) {
+            this.channel = channel;
+            lastNanos = now;
+        }
+    }
+
+    private final UdpChannel owner;
+    private final int capacity;
+    private final long idleNanos;
+    private final LinkedHashMap<SocketAddress, Entry> entries;
+    private final LinkedHashMap<SocketAddress, int[]> candidates;
+    private long hits;
+    private long misses;
+    private long opened;
+    private long evicted;
+    private long failed;
+
+    ConnectedCache(UdpChannel owner, int capacity, int idleMillis) {
+        this.owner = owner;
+        this.capacity = capacity;
+        idleNanos = idleMillis * 1000000L;
+        entries = new LinkedHashMap<>(capacity * 2, 0.75f, true); // access order
+        final int maxCandidates = capacity * 4;
+        candidates = new LinkedHashMap<SocketAddress, int[]>(maxCandidates * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SocketAddress, int[]> eldest) {
+                return size() > maxCandidates;
+            }
+        };
+    }
+
+    static boolean cacheable(SocketAddress target) {
+        if (!(target instanceof InetSocketAddress)) {
+            return false;
+        }
+        InetSocketAddress soc = (InetSocketAddress) target;
+        return soc.getAddress() != null
+                && !soc.getAddress().isMulticastAddress()
+                && !soc.getAddress().isAnyLocalAddress()
+                && !UdpChannel.seemsBroadcast(soc.getAddress());
+    }
+
+// returns the cached channel or null
+    synchronized DatagramChannel channel(SocketAddress target) {
+        long now = System.nanoTime();
+        Entry e = entries.get(target);
+        if (e != null) {
+            hits++;
+            e.lastNanos = now;
+            return e.channel;
+        }
+        misses++;
+        if (!cacheable(target)) {
+            return null;
+        }
+        int[] count = candidates.get(target);
+        if (count == null) {
+            candidates.put(target, new int[]{1});
+            return null;
+        }
+        if (count[0] == REJECTED || ++count[0] < ADMIT_COUNT) {
+            return null;
+        }
+        DatagramChannel ch;
+        try {
+            ch = open(target);
+        } catch (IOException | RuntimeException ex) {
+            count[0] = REJECTED;
+            failed++;
+            return null;
+        }
+        candidates.remove(target);
+        if (entries.size() >= capacity) {
+            Iterator<Entry> it = entries.values().iterator();
+            Entry eldest = it.next();
+            it.remove();
+            evicted++;
+            owner.connectedEvicted(eldest.channel);
+        }
+        entries.put(target, new Entry(ch, now));
+        opened++;
+        owner.connectedOpened(ch);
+        return ch;
+    }
+
+    DatagramChannel open(SocketAddress target) throws IOException {
+        SocketAddress local = owner.getChannel().getLocalAddress();
+        DatagramChannel ch = DatagramChannel.open(
+                ((InetSocketAddress) local).getAddress() instanceof Inet6Address
+                ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+        try {
+            ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            ch.bind(local);
+            ch.connect(target);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+
+    void close(Entry e) {
+        evicted++;
+        try {
+            e.channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+// the listener received from the channel
+    synchronized void touch(DatagramChannel ch) {
+        try {
+            Entry e = entries.get(ch.getRemoteAddress());
+            if (e != null && e.channel == ch) {
+                e.lastNanos = System.nanoTime();
+            }
+        } catch (IOException ignore) { // closed
+        }
+    }
+
+// removes idle entries, returns their channels to drain and close
+    synchronized List<DatagramChannel> evictIdle() {
+        List<DatagramChannel> list = null;
+        long now = System.nanoTime();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) { // least recently used first
+            Entry e = it.next();
+            if (now - e.lastNanos <= idleNanos) {
+                break;
+            }
+            it.remove();
+            evicted++;
+            if (list == null) {
+                list = new ArrayList<>();
+            }
+            list.add(e.channel);
+        }
+        return list;
+    }
+
+    synchronized List<DatagramChannel> channels() {
+        List<DatagramChannel> list = new ArrayList<>(entries.size());
+        for (Entry e : entries.values()) {
+            list.add(e.channel);
+        }
+        return list;
+    }
+
+    synchronized void clear() {
+        for (Entry e : entries.values()) {
+            close(e);
+        }
+        entries.clear();
+        candidates.clear();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size: %d hits: %d misses: %d opened: %d evicted: %d failed: %d",
+                entries.size(), hits, misses, opened, evicted, failed);
+    }
+}
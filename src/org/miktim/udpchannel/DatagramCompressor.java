@@ -0,0 +1,295 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Per-datagram compression with the pre-shared dictionary
+ *
+ * Created 2025-06-27
+ */
+package org.miktim.udpchannel;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ Datagram format: one flag byte (RAW or DEFLATE) followed by the payload.
+ The payload is compressed by the raw deflate with the dictionary shared
+ by the sender and receiver. Compression is skipped for small payloads
+ and when the compressed payload is not shorter than the raw one.
+ Buffers, Deflater and Inflater are reused: no allocation per datagram.
+ The compress side (send) and the decompress side (onPacket) are not
+ synchronized: use them from one sender thread and the channel listener.
+ */
+public final class DatagramCompressor {
+
+    public static final byte RAW = 0;
+    public static final byte DEFLATE = 1;
+    public static final int MIN_SIZE = 32; // do not compress shorter payloads
+    public static final int MAX_DATAGRAM = 65507;
+
+    private final byte[] dictionary;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+    private final ByteBuffer sendBuffer;
+    private final byte[] receiveBuffer = new byte[MAX_DATAGRAM];
+
+    private volatile long rawBytes;
+    private volatile long compressedBytes; // sent bytes
+    private volatile long compressedCount;
+    private volatile long rawCount;
+    private volatile long compressNanos;
+    private volatile long decompressedCount;
+    private volatile long decompressNanos;
+    private volatile long malformedCount;
+
+    public DatagramCompressor(byte[] dictionary, int level, int maxSize) {
+        this.dictionary = dictionary;
+        deflater = new Deflater(level, true);
+        sendBuffer = ByteBuffer.allocate(maxSize + 1);
+    }
+
+    public DatagramCompressor(byte[] dictionary) {
+        this(dictionary, Deflater.BEST_SPEED, MAX_DATAGRAM - 1);
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public int send(UdpChannel uc, byte[] buf, int off, int len, SocketAddress target)
+            throws IOException {
+        if (len + 1 > sendBuffer.capacity()) {
+            throw new IllegalArgumentException("Payload too long");
+        }
+        byte[] out = sendBuffer.array();
+        int size = 0;
+        if (len >= MIN_SIZE) {
+            long started = System.nanoTime();
+            deflater.reset();
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(buf, off, len);
+            deflater.finish();
+            size = deflater.deflate(out, 1, len - 1); // must be shorter than raw
+            if (!deflater.finished()) {
+                size = 0;
+            }
+            compressNanos += System.nanoTime() - started;
+        }
+        if (size > 0) {
+            out[0] = DEFLATE;
+            compressedCount++;
+        } else {
+            out[0] = RAW;
+            System.arraycopy(buf, off, out, 1, len);
+            size = len;
+            rawCount++;
+        }
+        rawBytes += len;
+        compressedBytes += size + 1;
+        sendBuffer.clear().limit(size + 1);
+        uc.send(sendBuffer, target);
+        return len;
+    }
+
+    public int send(UdpChannel uc, byte[] buf) throws IOException {
+        return send(uc, buf, 0, buf.length, uc.getRemote());
+    }
+
+// Restores the payload of the received datagram. The decompressed payload
+// refers to the reused buffer and is valid until the next call.
+    public DatagramPacket decompress(DatagramPacket dp) throws DataFormatException {
+        byte[] data = dp.getData();
+        int off = dp.getOffset();
+        int len = dp.getLength();
+        if (len < 1) {
+            throw new DataFormatException("No flag");
+        }
+        if (data[off] == RAW) {
+            dp.setData(data, off + 1, len - 1);
+            return dp;
+        }
+        if (data[off] != DEFLATE) {
+            throw new DataFormatException("Unknown flag");
+        }
+        long started = System.nanoTime();
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(data, off + 1, len - 1);
+        int size = inflater.inflate(receiveBuffer);
+        if (!inflater.finished()) {
+            throw new DataFormatException("Truncated datagram");
+        }
+        decompressNanos += System.nanoTime() - started;
+        decompressedCount++;
+        dp.setData(receiveBuffer, 0, size);
+        return dp;
+    }
+
+// Returns the handler that passes decompressed datagrams to the specified one.
+// Malformed datagrams are dropped and counted: a stray datagram must not
+// close the channel by the handler error policy.
+    public UdpChannel.PacketHandler handler(final UdpChannel.PacketHandler handler) {
+        return new UdpChannel.PacketHandler() {
+            @Override
+            public void onPacket(UdpChannel uc, DatagramPacket dp) {
+                DatagramPacket decompressed;
+                try {
+                    decompressed = decompress(dp);
+                } catch (DataFormatException e) {
+                    malformedCount++;
+                    return;
+                }
+                handler.onPacket(uc, decompressed);
+            }
+        };
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+// sent bytes / raw bytes
+    public double getRatio() {
+        return rawBytes == 0 ? 1.0 : (double) compressedBytes / rawBytes;
+    }
+
+    public long getCompressedCount() {
+        return compressedCount;
+    }
+
+    public long getRawCount() {
+        return rawCount;
+    }
+
+    public long getCompressNanos() {
+        return compressNanos;
+    }
+
+    public long getDecompressedCount() {
+        return decompressedCount;
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos;
+    }
+
+// datagrams dropped by the handler
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ratio: %.3f compressed: %d raw: %d compress: %d ns decompressed: %d decompress: %d ns malformed: %d",
+                getRatio(), compressedCount, rawCount, compressNanos,
+                decompressedCount, decompressNanos, malformedCount);
+    }
+
+    public void end() {
+        deflater.end();
+        inflater.end();
+    }
+
+    static final int GRAM = 8;
+    static final int SEGMENT = 32;
+
+    static long gram(byte[] b, int i) {
+        long g = 0;
+        for (int j = 0; j < GRAM; j++) {
+            g = (g << 8) | (b[i + j] & 0xFF);
+        }
+        return g;
+    }
+
+/*
+ Builds the dictionary of the most common segments of the captured payloads.
+ Segments are scored by the number of samples containing their 8-byte grams.
+ The best segments are placed at the end of the dictionary (nearest for deflate).
+ */
+    public static byte[] train(List<byte[]> samples, int size) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> grams = new HashSet<>();
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                grams.add(gram(sample, i));
+            }
+            for (Long g : grams) {
+                Integer c = counts.get(g);
+                counts.put(g, c == null ? 1 : c + 1);
+            }
+        }
+        List<long[]> segments = new ArrayList<>(); // score, sample, offset
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int off = 0; off + GRAM <= sample.length; off += SEGMENT / 2) {
+                long score = 0;
+                for (int i = off; i + GRAM <= Math.min(off + SEGMENT, sample.length); i++) {
+                    int c = counts.get(gram(sample, i));
+                    if (c > 1) {
+                        score += c;
+                    }
+                }
+                if (score > 0) {
+                    segments.add(new long[]{score, s, off});
+                }
+            }
+        }
+        Collections.sort(segments, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(b[0], a[0]);
+            }
+        });
+        Set<Long> covered = new HashSet<>();
+        List<byte[]> chosen = new ArrayList<>();
+        int total = 0;
+        for (long[] seg : segments) {
+            if (total >= size) {
+                break;
+            }
+            byte[] sample = samples.get((int) seg[1]);
+            int off = (int) seg[2];
+            int end = Math.min(off + SEGMENT, sample.length);
+            int fresh = 0;
+            for (int i = off; i + GRAM <= end; i++) {
+                if (covered.add(gram(sample, i))) {
+                    fresh++;
+                }
+            }
+            if (fresh == 0) {
+                continue;
+            }
+            int len = Math.min(end - off, size - total);
+            byte[] b = new byte[len];
+            System.arraycopy(sample, off, b, 0, len);
+            chosen.add(b);
+            total += len;
+        }
+        byte[] dict = new byte[total];
+        int pos = 0;
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            System.arraycopy(chosen.get(i), 0, dict, pos, chosen.get(i).length);
+            pos += chosen.get(i).length;
+        }
+        return dict;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Flyweight message codec over ByteBuffer
+ *
+ * Created 2025-07-08
+ */
+package org.miktim.udpchannel;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ Base of the fixed layout messages. A subclass defines the field offsets
+ and typed accessors; fields are read and written in place, little-endian,
+ without intermediate objects. The flyweight is reusable: wrap it over
+ the send buffer to encode or over the BufferHandler buffer to decode.
+ The subclasses are generated from the message schema by FlyweightGenerator.
+ Example:
+    final class Quote extends Flyweight {
+        static final int ID = 0;     // long
+        static final int PRICE = 8;  // double
+        static final int SIZE = 16;
+
+        public int size() { return SIZE; }
+        public long id() { return getLong(ID); }
+        public Quote id(long v) { putLong(ID, v); return this; }
+        public double price() { return getDouble(PRICE); }
+        public Quote price(double v) { putDouble(PRICE, v); return this; }
+    }
+ */
+public abstract class Flyweight {
+
+    protected ByteBuffer buffer;
+    protected int offset;
+
+// sets the little-endian order of the buffer
+    public Flyweight wrap(ByteBuffer buf, int offset) {
+        if (offset < 0 || offset + size() > buf.limit()) {
+            throw new IndexOutOfBoundsException("Message does not fit");
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buffer = buf;
+        this.offset = offset;
+        return this;
+    }
+
+// wraps the remaining bytes of the received buffer
+    public Flyweight wrap(ByteBuffer buf) {
+        return wrap(buf, buf.position());
+    }
+
+    public abstract int size(); // encoded message length
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    protected final byte getByte(int field) {
+        return buffer.get(offset + field);
+    }
+
+    protected final void putByte(int field, byte v) {
+        buffer.put(offset + field, v);
+    }
+
+    protected final short getShort(int field) {
+        return buffer.getShort(offset + field);
+    }
+
+    protected final void putShort(int field, short v) {
+        buffer.putShort(offset + field, v);
+    }
+
+    protected final int getInt(int field) {
+        return buffer.getInt(offset + field);
+    }
+
+    protected final void putInt(int field, int v) {
+        buffer.putInt(offset + field, v);
+    }
+
+    protected final long getLong(int field) {
+        return buffer.getLong(offset + field);
+    }
+
+    protected final void putLong(int field, long v) {
+        buffer.putLong(offset + field, v);
+    }
+
+    protected final float getFloat(int field) {
+        return buffer.getFloat(offset + field);
+    }
+
+    protected final void putFloat(int field, float v) {
+        buffer.putFloat(offset + field, v);
+    }
+
+    protected final double getDouble(int field) {
+        return buffer.getDouble(offset + field);
+    }
+
+    protected final void putDouble(int field, double v) {
+        buffer.putDouble(offset + field, v);
+    }
+
+// fixed length byte array field
+    protected final void getBytes(int field, byte[] dst, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[off + i] = buffer.get(offset + field + i);
+        }
+    }
+
+    protected final void putBytes(int field, byte[] src, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            buffer.put(offset + field + i, src[off + i]);
+        }
+    }
+
+// Sends the encoded message. The buffer position and limit are restored.
+    public int send(UdpChannel uc, SocketAddress target) throws IOException {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+            buffer.limit(offset + size()).position(offset);
+            return uc.send(buffer, target);
+        } finally {
+            buffer.limit(limit).position(position);
+        }
+    }
+
+    public int send(UdpChannel uc) throws IOException {
+        return send(uc, uc.getRemote());
+    }
+}
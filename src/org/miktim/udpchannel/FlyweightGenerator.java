@@ -0,0 +1,301 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Flyweight message classes generator
+ *
+ * Created 2025-07-10
+ */
+package org.miktim.udpchannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ Generates the Flyweight subclasses from the message schema.
+ Schema: one declaration per line, # starts a comment.
+    package com.example.quotes   # optional, package of the generated classes
+    message Quote                # message class name
+      id long                    # field name and type
+      price double
+      qty int
+      symbol bytes 8             # fixed length byte array
+ Types: byte, short, int, long, float, double, bytes <length>.
+ Fields follow each other without padding, in the schema order.
+ Field names are Java identifiers, not keywords or the Flyweight method names.
+ The generated constants (lastPrice -> LAST_PRICE, bytes: LAST_PRICE_LENGTH, SIZE)
+ and accessors must not clash.
+ Usage: java -cp udpchannel.jar org.miktim.udpchannel.FlyweightGenerator schema [outdir]
+ One source file per message is written to the outdir (default: current directory).
+ */
+public final class FlyweightGenerator {
+
+    static final class Field {
+
+        final String name;
+        final String type;
+        final int length;
+        final int offset;
+
+        Field(String name, String type, int length, int offset) {
+            this.name = name;
+            this.type = type;
+            this.length = length;
+            this.offset = offset;
+        }
+    }
+
+    static final class Message {
+
+        final String pkg;
+        final String name;
+        final List<Field> fields = new ArrayList<>();
+        int size = 0;
+
+        Message(String pkg, String name) {
+            this.pkg = pkg;
+            this.name = name;
+        }
+    }
+
+    static final List<String> TYPES = Arrays.asList(
+            "byte", "short", "int", "long", "float", "double", "bytes");
+    static final int[] TYPE_SIZES = {1, 2, 4, 8, 4, 8, 0};
+// method names of the Flyweight and Object
+    static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "wrap", "size", "buffer", "offset", "send",
+            "getByte", "putByte", "getShort", "putShort", "getInt", "putInt",
+            "getLong", "putLong", "getFloat", "putFloat", "getDouble", "putDouble",
+            "getBytes", "putBytes",
+            "getClass", "hashCode", "equals", "toString", "clone", "finalize",
+            "notify", "notifyAll", "wait"));
+// generated constants
+    static final Set<String> RESERVED_CONSTANTS = new HashSet<>(Arrays.asList("SIZE"));
+    static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char",
+            "class", "const", "continue", "default", "do", "double", "else", "enum",
+            "extends", "final", "finally", "float", "for", "goto", "if", "implements",
+            "import", "instanceof", "int", "interface", "long", "native", "new",
+            "package", "private", "protected", "public", "return", "short", "static",
+            "strictfp", "super", "switch", "synchronized", "this", "throw", "throws",
+            "transient", "try", "void", "volatile", "while",
+            "true", "false", "null", "_"));
+
+    private FlyweightGenerator() {
+    }
+
+    static boolean isIdentifier(String s) {
+        if (s.isEmpty() || KEYWORDS.contains(s)
+                || !Character.isJavaIdentifierStart(s.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < s.length(); i++) {
+            if (!Character.isJavaIdentifierPart(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static IllegalArgumentException error(int line, String msg) {
+        return new IllegalArgumentException("Line " + line + ": " + msg);
+    }
+
+    static List<Message> parse(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        List<Message> messages = new ArrayList<>();
+        Set<String> methods = new HashSet<>(); // accessor names of the message
+        Set<String> constants = new HashSet<>();
+        String pkg = null;
+        Message m = null;
+        String s;
+        for (int line = 1; (s = in.readLine()) != null; line++) {
+            int comment = s.indexOf('#');
+            if (comment >= 0) {
+                s = s.substring(0, comment);
+            }
+            s = s.trim();
+            if (s.isEmpty()) {
+                continue;
+            }
+            String[] tokens = s.split("\\s+");
+            if (tokens[0].equals("package") && tokens.length == 2) {
+                for (String part : tokens[1].split("\\.", -1)) {
+                    if (!isIdentifier(part)) {
+                        throw error(line, "invalid package: " + tokens[1]);
+                    }
+                }
+                pkg = tokens[1];
+            } else if (tokens[0].equals("message") && tokens.length == 2) {
+                if (!isIdentifier(tokens[1])) {
+                    throw error(line, "invalid message name: " + tokens[1]);
+                }
+                m = new Message(pkg, tokens[1]);
+                messages.add(m);
+                methods.clear();
+                constants.clear();
+                constants.addAll(RESERVED_CONSTANTS);
+            } else if (tokens.length == 2 || tokens.length == 3) {
+                if (m == null) {
+                    throw error(line, "field outside of message");
+                }
+                String name = tokens[0];
+                if (!isIdentifier(name) || RESERVED.contains(name)) {
+                    throw error(line, "invalid field name: " + name);
+                }
+                int type = TYPES.indexOf(tokens[1]);
+                if (type < 0) {
+                    throw error(line, "unknown type: " + tokens[1]);
+                }
+                boolean bytes = tokens[1].equals("bytes");
+                String getter = bytes ? "get" + capitalize(name) : name;
+                if (!methods.add(name)) {
+                    throw error(line, "duplicate accessor: " + name);
+                }
+                if (bytes && (RESERVED.contains(getter) || !methods.add(getter))) {
+                    throw error(line, "duplicate accessor: " + getter);
+                }
+                String c = constant(name);
+                if (!constants.add(c)) {
+                    throw error(line, "duplicate constant: " + c);
+                }
+                if (bytes && !constants.add(c + "_LENGTH")) {
+                    throw error(line, "duplicate constant: " + c + "_LENGTH");
+                }
+                int length = TYPE_SIZES[type];
+                if (bytes) {
+                    try {
+                        length = tokens.length == 3 ? Integer.parseInt(tokens[2]) : 0;
+                    } catch (NumberFormatException e) {
+                        length = 0;
+                    }
+                    if (length <= 0) {
+                        throw error(line, "bytes length expected");
+                    }
+                } else if (tokens.length == 3) {
+                    throw error(line, "unexpected length: " + tokens[2]);
+                }
+                m.fields.add(new Field(name, tokens[1], length, m.size));
+                m.size += length;
+            } else {
+                throw error(line, "unknown declaration: " + s);
+            }
+        }
+        for (Message message : messages) {
+            if (message.fields.isEmpty()) {
+                throw new IllegalArgumentException("Message has no fields: " + message.name);
+            }
+        }
+        return messages;
+    }
+
+// lastPrice -> LAST_PRICE
+    static String constant(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (i > 0 && Character.isUpperCase(c) && !Character.isUpperCase(name.charAt(i - 1))) {
+                sb.append('_');
+            }
+            sb.append(Character.toUpperCase(c));
+        }
+        return sb.toString();
+    }
+
+    static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    static String generate(Message m, String source) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("/**\n * Generated by FlyweightGenerator from ").append(source)
+                .append(", do not edit\n */\n");
+        if (m.pkg != null) {
+            sb.append("package ").append(m.pkg).append(";\n\n");
+        }
+        if (!FlyweightGenerator.class.getPackage().getName().equals(m.pkg)) {
+            sb.append("import org.miktim.udpchannel.Flyweight;\n\n");
+        }
+        sb.append("public final class ").append(m.name).append(" extends Flyweight {\n\n");
+        for (Field f : m.fields) {
+            String c = constant(f.name);
+            sb.append(String.format("    public static final int %s = %d; // %s%n",
+                    c, f.offset, f.type));
+            if (f.type.equals("bytes")) {
+                sb.append(String.format("    public static final int %s_LENGTH = %d;%n",
+                        c, f.length));
+            }
+        }
+        sb.append(String.format("    public static final int SIZE = %d;%n%n", m.size));
+        sb.append("    @Override\n    public int size() {\n        return SIZE;\n    }\n");
+        for (Field f : m.fields) {
+            String c = constant(f.name);
+            if (f.type.equals("bytes")) {
+                sb.append(String.format("%n    public void get%s(byte[] dst) {%n"
+                        + "        getBytes(%s, dst, 0, %s_LENGTH);%n    }%n",
+                        capitalize(f.name), c, c));
+                sb.append(String.format("%n    public %s %s(byte[] src) {%n"
+                        + "        putBytes(%s, src, 0, %s_LENGTH);%n"
+                        + "        return this;%n    }%n",
+                        m.name, f.name, c, c));
+            } else {
+                String t = capitalize(f.type);
+                sb.append(String.format("%n    public %s %s() {%n"
+                        + "        return get%s(%s);%n    }%n",
+                        f.type, f.name, t, c));
+                sb.append(String.format("%n    public %s %s(%s v) {%n"
+                        + "        put%s(%s, v);%n"
+                        + "        return this;%n    }%n",
+                        m.name, f.name, f.type, t, c));
+            }
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+// returns the generated files
+    public static List<File> generate(File schema, File dir) throws IOException {
+        List<Message> messages;
+        try (Reader reader = new InputStreamReader(
+                new FileInputStream(schema), StandardCharsets.UTF_8)) {
+            messages = parse(reader);
+        }
+        List<File> files = new ArrayList<>();
+        for (Message m : messages) {
+            File file = new File(dir, m.name + ".java");
+            try (Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                writer.write(generate(m, schema.getName()));
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: java org.miktim.udpchannel.FlyweightGenerator schema [outdir]");
+            System.exit(1);
+        }
+        File dir = new File(args.length > 1 ? args[1] : ".");
+        try {
+            for (File file : generate(new File(args[0]), dir)) {
+                System.out.println(file);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
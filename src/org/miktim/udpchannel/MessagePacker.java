@@ -0,0 +1,171 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Small messages coalescing: packs messages into one datagram
+ *
+ * Created 2025-06-25
+ */
+package org.miktim.udpchannel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ Datagram format: sequence of messages, each prefixed with the unsigned
+ 16-bit big-endian length. See MessageUnpacker.
+ The datagram is sent when the next message does not fit, on flush(),
+ or when the linger time of the first buffered message expires.
+ */
+public final class MessagePacker implements Closeable {
+
+    public static final int HEADER_SIZE = 2;
+    public static final long DEFAULT_LINGER = 100; // micros
+
+    private final UdpChannel channel;
+    private final SocketAddress target;
+    private final ByteBuffer buffer;
+    private final long lingerNanos;
+    private long deadline;
+    private int count; // messages in the buffer
+    private long messages;
+    private long datagrams;
+    private IOException error;
+    private volatile boolean closed = false;
+    private Thread flusher;
+
+/*
+ maxSize: max datagram length, limited by the channel payload size
+ lingerMicros: max delay of the buffered message, 0 - flush() only
+ */
+    public MessagePacker(UdpChannel uc, SocketAddress target, int maxSize, long lingerMicros) {
+        channel = uc;
+        this.target = target;
+        int size = Math.min(maxSize, uc.getPayloadSize());
+        if (uc.isTimestamped()) {
+            size -= UdpChannel.TIMESTAMP_SIZE;
+        }
+        if (size <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Datagram size");
+        }
+        buffer = ByteBuffer.allocate(size);
+        lingerNanos = lingerMicros * 1000;
+        if (lingerNanos > 0) {
+            flusher = new Flusher();
+            flusher.start();
+        }
+    }
+
+    public MessagePacker(UdpChannel uc) {
+        this(uc, uc.getRemote(), uc.getPayloadSize(), DEFAULT_LINGER);
+    }
+
+    class Flusher extends Thread {
+
+        Flusher() {
+            super("MessagePacker");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                long delay;
+                synchronized (MessagePacker.this) {
+                    if (count == 0) {
+                        delay = Long.MAX_VALUE;
+                    } else {
+                        delay = deadline - System.nanoTime();
+                        if (delay <= 0) {
+                            try {
+                                send();
+                            } catch (IOException e) {
+                                error = e;
+                            }
+                            continue;
+                        }
+                    }
+                }
+                if (delay == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, delay);
+                }
+            }
+        }
+    }
+
+    public int getMaxMessageSize() {
+        return Math.min(buffer.capacity() - HEADER_SIZE, 0xFFFF);
+    }
+
+    public void add(byte[] msg) throws IOException {
+        add(msg, 0, msg.length);
+    }
+
+    public synchronized void add(byte[] msg, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Closed");
+        }
+        checkError();
+        if (len > getMaxMessageSize()) {
+            throw new IllegalArgumentException("Message too long");
+        }
+        if (buffer.remaining() < len + HEADER_SIZE) {
+            send();
+        }
+        buffer.putShort((short) len).put(msg, off, len);
+        messages++;
+        if (count++ == 0 && flusher != null) {
+            deadline = System.nanoTime() + lingerNanos;
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        checkError();
+        send();
+    }
+
+    void checkError() throws IOException {
+        if (error != null) {
+            IOException e = error;
+            error = null;
+            throw e;
+        }
+    }
+
+    void send() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            channel.send(buffer, target);
+            datagrams++;
+        } finally {
+            buffer.clear();
+            count = 0;
+        }
+    }
+
+    public synchronized long getMessageCount() {
+        return messages;
+    }
+
+    public synchronized long getDatagramCount() {
+        return datagrams;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+        }
+        synchronized (this) {
+            send();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Unpacks messages coalesced by MessagePacker
+ *
+ * Created 2025-06-25
+ */
+package org.miktim.udpchannel;
+
+import java.net.DatagramPacket;
+
+/*
+ Calls the message handler for each message of the datagram.
+ Messages are not copied: off/len refer to dp.getData().
+ Malformed datagrams are dropped whole and counted: a stray datagram
+ must not close the channel by the handler error policy.
+ Unpack the channel datagrams: uc.receive(unpacker).
+ */
+public final class MessageUnpacker implements UdpChannel.PacketHandler {
+
+    public interface MessageHandler {
+
+        void onMessage(UdpChannel uc, DatagramPacket dp, int off, int len);
+    }
+
+    private final MessageHandler handler;
+    private long malformed;
+
+    public MessageUnpacker(MessageHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException("No handler");
+        }
+        this.handler = handler;
+    }
+
+    static boolean isWellFormed(byte[] data, int off, int end) {
+        while (off < end) {
+            if (end - off < MessagePacker.HEADER_SIZE) {
+                return false;
+            }
+            int len = ((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF);
+            off += MessagePacker.HEADER_SIZE + len;
+        }
+        return off == end;
+    }
+
+    @Override
+    public void onPacket(UdpChannel uc, DatagramPacket dp) {
+        byte[] data = dp.getData();
+        int off = dp.getOffset();
+        int end = off + dp.getLength();
+        if (!isWellFormed(data, off, end)) {
+            synchronized (this) {
+                malformed++;
+            }
+            return;
+        }
+        while (off < end) {
+            int len = ((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF);
+            off += MessagePacker.HEADER_SIZE;
+            handler.onMessage(uc, dp, off, len);
+            off += len;
+        }
+    }
+
+    public synchronized long getMalformedCount() {
+        return malformed;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Received datagram view with timestamps
+ *
+ * Created 2025-06-22
+ */
+package org.miktim.udpchannel;
+
+import java.net.DatagramPacket;
+
+/*
+ The view is reused by the channel listener and is valid only during
+ the UdpChannel.TimedHandler.onPacket call.
+ Timestamps are System.nanoTime() values. The receive time is taken when
+ the datagram is dequeued from the socket (kernel timestamps are not
+ available via DatagramChannel). The send time is taken from the
+ timestamp header of the timestamped channel (see UdpChannel.setTimestamped).
+ */
+public final class TimedPacket {
+
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private DatagramPacket packet;
+    private long receiveNanos;
+    private long dispatchNanos;
+    private long sendNanos = NO_TIME;
+
+    TimedPacket() {
+    }
+
+    TimedPacket set(DatagramPacket dp, long received, long sent) {
+        packet = dp;
+        receiveNanos = received;
+        sendNanos = sent;
+        dispatchNanos = System.nanoTime();
+        return this;
+    }
+
+    public DatagramPacket getPacket() {
+        return packet;
+    }
+
+    public long getReceiveNanos() {
+        return receiveNanos;
+    }
+
+    public long getDispatchNanos() {
+        return dispatchNanos;
+    }
+
+    public boolean hasSendNanos() {
+        return sendNanos != NO_TIME;
+    }
+
+    public long getSendNanos() {
+        return sendNanos;
+    }
+
+// one-way latency: sender and receiver must share the clock (same host)
+    public long getLatencyNanos() {
+        return hasSendNanos() ? receiveNanos - sendNanos : NO_TIME;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d latency: %d dispatch: %d",
+                packet.getSocketAddress(), packet.getLength(),
+                getLatencyNanos(), dispatchNanos - receiveNanos);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Hashed timer wheel
+ *
+ * Created 2025-06-30
+ */
+package org.miktim.udpchannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ O(1) schedule and cancel: timers are linked into the slot lists of
+ the wheel; the wheel thread advances one slot per tick and expires
+ the timers of the slot whose rounds are exhausted.
+ Timers expire on the wheel thread, no earlier than the deadline and
+ no later than one tick after it.
+ */
+final class TimerWheel {
+
+    abstract static class Timer {
+
+        Timer prev;
+        Timer next;
+        int slot = -1; // -1: not scheduled
+        long rounds;
+
+        boolean isScheduled() {
+            return slot >= 0;
+        }
+
+        abstract void expire();
+    }
+
+    private final Timer[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private long tick = 0; // current tick
+    private final long startNanos;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    TimerWheel(String name, int tickMillis, int slots) {
+        int size = Integer.highestOneBit(Math.max(2, slots - 1)) << 1;
+        wheel = new Timer[size];
+        mask = size - 1;
+        tickNanos = tickMillis * 1000000L;
+        startNanos = System.nanoTime();
+        worker = new Thread(name) {
+            @Override
+            public void run() {
+                advance();
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    synchronized void schedule(Timer t, long delayMillis) {
+        if (t.isScheduled()) {
+            unlink(t);
+        }
+// the target tick is counted from the current time, rounded up
+        long deadline = System.nanoTime() - startNanos + delayMillis * 1000000L;
+        long target = Math.max(tick + 1, (deadline + tickNanos - 1) / tickNanos);
+        long ticks = target - tick;
+        t.rounds = (ticks - 1) / wheel.length;
+        t.slot = (int) (target & mask);
+        t.prev = null;
+        t.next = wheel[t.slot];
+        if (t.next != null) {
+            t.next.prev = t;
+        }
+        wheel[t.slot] = t;
+    }
+
+    synchronized boolean cancel(Timer t) {
+        if (!t.isScheduled()) {
+            return false;
+        }
+        unlink(t);
+        return true;
+    }
+
+    private void unlink(Timer t) {
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            wheel[t.slot] = t.next;
+        }
+        if (t.next != null) {
+            t.next.prev = t.prev;
+        }
+        t.prev = t.next = null;
+        t.slot = -1;
+    }
+
+// moves expired timers of the next slot to the list
+    private synchronized void nextTick(List<Timer> expired) {
+        tick++;
+        int slot = (int) (tick & mask);
+        Timer t = wheel[slot];
+        while (t != null) {
+            Timer next = t.next;
+            if (t.rounds-- <= 0) {
+                unlink(t);
+                expired.add(t);
+            }
+            t = next;
+        }
+    }
+
+    void advance() {
+        List<Timer> expired = new ArrayList<>();
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long delay = deadline - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay);
+                continue;
+            }
+            nextTick(expired);
+            for (int i = 0; i < expired.size(); i++) {
+                try {
+                    expired.get(i).expire();
+                } catch (RuntimeException ignore) {
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+}
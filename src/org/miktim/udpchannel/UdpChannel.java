@@ -8,6 +8,7 @@ package org.miktim.udpchannel;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import static java.lang.Thread.sleep;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -16,21 +17,39 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
+import java.net.PortUnreachableException;
 import java.net.SocketException;
 import java.net.StandardSocketOptions;
 import java.net.ProtocolFamily;
 import java.net.SocketAddress;
 import java.net.StandardProtocolFamily;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.MembershipKey;
 import java.nio.channels.MulticastChannel;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public final class UdpChannel implements Closeable, AutoCloseable {
 
-    public static final String VERSION = "2.1.0";
+    public static final String VERSION = "2.2.0";
     private String mode;
     private DatagramChannel channel;
     private InetSocketAddress remoteSocket;
@@ -162,11 +181,174 @@ public final class UdpChannel implements Closeable, AutoCloseable {
     }
 
     public MembershipKey joinGroup() throws IOException {
-        return channel.join(remoteSocket.getAddress(), getNetworkInterface());
+        return join(remoteSocket.getAddress());
     }
 
     public MembershipKey joinGroup(InetAddress source) throws IOException {
-        return channel.join(remoteSocket.getAddress(), getNetworkInterface(), source);
+        return join(remoteSocket.getAddress(), source);
+    }
+
+// Multiple groups on the single channel
+    private final List<MembershipKey> memberships = new CopyOnWriteArrayList<>();
+// DatagramChannel does not report the destination address of the datagram,
+// so packets are dispatched to the group handlers by the source address.
+    private final Map<InetAddress, PacketHandler> sourceHandlers = new ConcurrentHashMap<>();
+    private final Map<MembershipKey, Set<InetAddress>> blockedSources = new ConcurrentHashMap<>();
+
+    public MembershipKey join(InetAddress group) throws IOException {
+        return join(group, null, null);
+    }
+
+    public MembershipKey join(InetAddress group, InetAddress source) throws IOException {
+        return join(group, source, null);
+    }
+
+    public MembershipKey join(InetAddress group, InetAddress source, PacketHandler handler)
+            throws IOException {
+        if (handler != null && source == null) {
+            throw new IllegalArgumentException("No source");
+        }
+// one handler per source: group handlers are selected by the source address
+        PacketHandler registered = handler == null ? null : sourceHandlers.get(source);
+        if (registered != null && registered != handler) {
+            throw new IllegalStateException("Source has another handler");
+        }
+        MembershipKey key = source == null
+                ? channel.join(group, getNetworkInterface())
+                : channel.join(group, getNetworkInterface(), source);
+        if (!memberships.contains(key)) {
+            memberships.add(key);
+        }
+        if (handler != null) {
+            sourceHandlers.put(source, handler);
+        }
+        return key;
+    }
+
+    public UdpChannel leave(InetAddress group) throws IOException {
+        for (MembershipKey key : memberships) {
+            if (key.group().equals(group)) {
+                leave(key);
+            }
+        }
+        return this;
+    }
+
+    public UdpChannel leave(InetAddress group, InetAddress source) throws IOException {
+        MembershipKey key = getMembership(group, source);
+        if (key != null) {
+            leave(key);
+        }
+        return this;
+    }
+
+    void leave(MembershipKey key) {
+        key.drop();
+        memberships.remove(key);
+        blockedSources.remove(key);
+        if (key.sourceAddress() != null) {
+            for (MembershipKey k : memberships) {
+                if (key.sourceAddress().equals(k.sourceAddress())) {
+                    return; // the source handler is still in use
+                }
+            }
+            sourceHandlers.remove(key.sourceAddress());
+        }
+    }
+
+    public UdpChannel block(InetAddress group, InetAddress source) throws IOException {
+        MembershipKey key = getMembership(group, null);
+        if (key == null) {
+            throw new IllegalStateException("Not a member");
+        }
+        key.block(source);
+        Set<InetAddress> blocked = blockedSources.get(key);
+        if (blocked == null) {
+            blocked = new CopyOnWriteArraySet<>();
+            blockedSources.put(key, blocked);
+        }
+        blocked.add(source);
+        return this;
+    }
+
+    public UdpChannel unblock(InetAddress group, InetAddress source) throws IOException {
+        MembershipKey key = getMembership(group, null);
+        if (key == null) {
+            throw new IllegalStateException("Not a member");
+        }
+        key.unblock(source);
+        Set<InetAddress> blocked = blockedSources.get(key);
+        if (blocked != null) {
+            blocked.remove(source);
+        }
+        return this;
+    }
+
+// Drops and rejoins all memberships via the current state of their interfaces,
+// restores blocked sources. Used to recover memberships after interface flaps.
+    public synchronized UdpChannel rejoin() throws IOException {
+        IOException error = null;
+        NetworkInterface mcIntf = getNetworkInterface();
+        if (mcIntf != null) {
+            NetworkInterface ni = NetworkInterface.getByName(mcIntf.getName());
+            if (ni != null) {
+                setNetworkInterface(ni);
+            }
+        }
+        for (MembershipKey key : memberships) {
+            try {
+                NetworkInterface ni
+                        = NetworkInterface.getByName(key.networkInterface().getName());
+                if (ni == null) {
+                    throw new SocketException("No interface " + key.networkInterface().getName());
+                }
+                key.drop();
+                MembershipKey newKey = key.sourceAddress() == null
+                        ? channel.join(key.group(), ni)
+                        : channel.join(key.group(), ni, key.sourceAddress());
+                memberships.set(memberships.indexOf(key), newKey);
+                Set<InetAddress> blocked = blockedSources.remove(key);
+                if (blocked != null) {
+                    for (InetAddress source : blocked) {
+                        newKey.block(source);
+                    }
+                    blockedSources.put(newKey, blocked);
+                }
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return this;
+    }
+
+    public MembershipKey getMembership(InetAddress group, InetAddress source) {
+        for (MembershipKey key : memberships) {
+            if (key.isValid() && key.group().equals(group)
+                    && (source == null ? key.sourceAddress() == null
+                            : source.equals(key.sourceAddress()))) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    public List<MembershipKey> getMemberships() {
+        return Collections.unmodifiableList(memberships);
+    }
+
+    PacketHandler handlerFor(InetAddress source, PacketHandler handler) {
+        if (!sourceHandlers.isEmpty() && source != null) {
+            PacketHandler ph = sourceHandlers.get(source);
+            if (ph != null) {
+                return ph;
+            }
+        }
+        return handler;
     }
 
     /*
@@ -176,12 +358,101 @@ public final class UdpChannel implements Closeable, AutoCloseable {
     }
      */
     public int send(byte[] buf, SocketAddress target) throws IOException {
+        return send(ByteBuffer.wrap(buf), target);
+    }
+
+    public int send(ByteBuffer src, SocketAddress target) throws IOException {
         if (!isBound()) {
             bind();
         }
-        return channel.send(ByteBuffer.wrap(buf), target);
+        if (timestamped) {
+            ByteBuffer buf = timestampBuffer(TIMESTAMP_SIZE + src.remaining());
+            buf.putLong(System.nanoTime()).put(src).flip();
+            return channelSend(buf, target) - TIMESTAMP_SIZE;
+        }
+        return channelSend(src, target);
     }
 
+// timestamped send buffer of the sender thread, grows up to the largest datagram
+    private static final ThreadLocal<ByteBuffer> TIMESTAMP_BUFFER = new ThreadLocal<>();
+
+    static ByteBuffer timestampBuffer(int size) {
+        ByteBuffer buf = TIMESTAMP_BUFFER.get();
+        if (buf == null || buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(Math.max(size, 1500));
+            TIMESTAMP_BUFFER.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    int channelSend(ByteBuffer src, SocketAddress target) throws IOException {
+        ConnectedCache cc = connectedCache;
+        if (cc != null && !isConnected() && isCacheReceiving()) {
+            DatagramChannel ch = cc.channel(target);
+            if (ch != null) {
+                try {
+                    return connectedSend(ch, src);
+                } catch (PortUnreachableException e) {
+                    return connectedSend(ch, src); // ICMP reply to the previous send
+                } catch (ClosedChannelException e) { // evicted
+                }
+            }
+        }
+        return channel.send(src, target);
+    }
+
+// cached channels are non-blocking: wait until the socket send buffer has space
+    int connectedSend(DatagramChannel ch, ByteBuffer src) throws IOException {
+        int len = src.remaining();
+        int sent = ch.write(src);
+        while (sent == 0 && len > 0 && !ch.isBlocking()) {
+            LockSupport.parkNanos(SEND_RETRY_NANOS);
+            sent = ch.write(src);
+        }
+        return sent;
+    }
+
+// Connected channels cache for hot unicast destinations, see ConnectedCache
+    private volatile ConnectedCache connectedCache;
+    private final Queue<DatagramChannel> connectedQueue = new ConcurrentLinkedQueue<>();
+
+// capacity: 0 - disable cache
+    public UdpChannel setConnectedCache(int capacity, int idleMillis) {
+        ConnectedCache cc = connectedCache;
+        connectedCache = capacity > 0
+                ? new ConnectedCache(this, capacity, idleMillis) : null;
+        if (cc != null) {
+            cc.clear();
+        }
+        return this;
+    }
+
+    public ConnectedCache getConnectedCache() {
+        return connectedCache;
+    }
+
+// the listener receives from the cached channels
+    void connectedOpened(DatagramChannel ch) {
+        ChannelListenr l = listener;
+        if (l != null && !(l.handler instanceof SocketHandler)) {
+            l.connectedOpened(ch);
+        }
+    }
+
+// the listener drains the evicted channel before closing
+    void connectedEvicted(DatagramChannel ch) {
+        ChannelListenr l = listener;
+        if (l == null || !l.connectedEvicted(ch)) {
+            try {
+                ch.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    static final long SEND_RETRY_NANOS = 50000;
+
     public int send(byte[] buf) throws IOException {
         return send(buf, remoteSocket);
     }
@@ -200,10 +471,35 @@ public final class UdpChannel implements Closeable, AutoCloseable {
         if (dp.getAddress() == null) {
             dp.setSocketAddress(remoteSocket);
         }
+        if (timestamped) {
+            byte[] buf = new byte[TIMESTAMP_SIZE + dp.getLength()];
+            ByteBuffer.wrap(buf).putLong(System.nanoTime())
+                    .put(dp.getData(), dp.getOffset(), dp.getLength());
+            getSocket().send(new DatagramPacket(buf, buf.length, dp.getSocketAddress()));
+            return;
+        }
         getSocket().send(dp);
     }
 
-    public interface Handler {
+// Timestamp header: sender's System.nanoTime(), 8 bytes, big-endian
+    public static final int TIMESTAMP_SIZE = 8;
+    private volatile boolean timestamped = false;
+
+    public UdpChannel setTimestamped(boolean on) {
+        timestamped = on;
+        return this;
+    }
+
+    public boolean isTimestamped() {
+        return timestamped;
+    }
+
+    public interface PacketHandler {
+
+        void onPacket(UdpChannel uc, DatagramPacket dp);
+    }
+
+    public interface Handler extends PacketHandler {
 
         void onStart(UdpChannel uc);
 
@@ -214,6 +510,18 @@ public final class UdpChannel implements Closeable, AutoCloseable {
         void onPacket(UdpChannel uc, DatagramPacket dp);
     }
 
+    public interface TimedHandler extends Handler {
+
+        void onPacket(UdpChannel uc, TimedPacket tp);
+    }
+
+// Zero-copy receive: the datagram payload is between the buffer position and limit.
+// The buffer is reused by the listener and is valid only during the call.
+    public interface BufferHandler extends Handler {
+
+        void onPacket(UdpChannel uc, ByteBuffer buf, SocketAddress source);
+    }
+
     public interface ChannelHandler extends Handler {
 
     }
@@ -222,12 +530,84 @@ public final class UdpChannel implements Closeable, AutoCloseable {
 
     }
 
-    private UdpChannel.Handler handler;
-    private boolean isRunning;
+// Called by the listener when no datagram arrived within POLL_TIMEOUT millis
+    public interface IdleHandler {
+
+        void onIdle(UdpChannel uc);
+    }
+
+    private final List<IdleHandler> idleHandlers = new CopyOnWriteArrayList<>();
+
+    public UdpChannel addIdleHandler(IdleHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException("No handler");
+        }
+        idleHandlers.add(handler);
+        return this;
+    }
+
+    public UdpChannel removeIdleHandler(IdleHandler handler) {
+        idleHandlers.remove(handler);
+        return this;
+    }
+
+    private volatile UdpChannel.Handler handler;
+    private volatile ChannelListenr listener;
     private int payloadSize = 1500;
+// listener checks the stop request at least once per POLL_TIMEOUT millis
+    static final int POLL_TIMEOUT = 100;
+    static final int CLOSE_TIMEOUT = 1000;
+
+    public enum ErrorPolicy {
+        CONTINUE, // continue receiving
+        BACKOFF,  // pause receiving, rejoin groups on socket errors, continue receiving
+        CLOSE     // close channel
+    }
+
+    private volatile ErrorPolicy socketErrorPolicy = ErrorPolicy.CLOSE;
+    private volatile ErrorPolicy handlerErrorPolicy = ErrorPolicy.CLOSE;
+    private volatile int rejoinInterval = 0; // disabled
+    static final int BACKOFF_MIN = 10; // millis
+    static final int BACKOFF_MAX = 5000;
+
+// socketErrors: receive errors, handlerErrors: exceptions thrown by the onPacket
+    public UdpChannel setErrorPolicy(ErrorPolicy socketErrors, ErrorPolicy handlerErrors) {
+        if (socketErrors == null || handlerErrors == null) {
+            throw new NullPointerException("No policy");
+        }
+        socketErrorPolicy = socketErrors;
+        handlerErrorPolicy = handlerErrors;
+        return this;
+    }
+
+    public ErrorPolicy getSocketErrorPolicy() {
+        return socketErrorPolicy;
+    }
+
+    public ErrorPolicy getHandlerErrorPolicy() {
+        return handlerErrorPolicy;
+    }
+
+// the listener checks the membership interfaces every interval millis
+// and rejoins groups when the interface comes back up
+    public UdpChannel setRejoinInterval(int millis) {
+        rejoinInterval = millis;
+        return this;
+    }
+
+    public int getRejoinInterval() {
+        return rejoinInterval;
+    }
 
     public boolean isReceiving() {
-        return isRunning;
+        ChannelListenr l = listener;
+        return l != null && l.running;
+    }
+
+// the connected channels cache is used while the listener receives from it
+    boolean isCacheReceiving() {
+        ChannelListenr l = listener;
+        return l != null && l.running && !(l.handler instanceof SocketHandler);
     }
 
     public UdpChannel setPayloadSize(int size) {
@@ -241,74 +621,688 @@ public final class UdpChannel implements Closeable, AutoCloseable {
 
     class ChannelListenr extends Thread {
 
-        UdpChannel uch;
+        final UdpChannel uch;
+        final Handler handler;
+        volatile boolean running = true;
+        volatile boolean drain = false;
+        final CountDownLatch terminated = new CountDownLatch(1);
+// handler calls of the listener and of the connected channels listener
+        final Object dispatchLock = new Object();
+        ConnectedListener connected; // guarded by uch.connectedQueue
+        final Queue<DatagramChannel> evictedQueue = new ConcurrentLinkedQueue<>();
+        TimedPacket timedPacket = new TimedPacket();
+        DatagramPacket packet; // BufferHandler receive packet
+        ByteBuffer packetBuffer; // packet data view
+        ByteBuffer buffer; // BufferHandler connected channels receive buffer
+        int backoff = 0;
+        long lastCheck = System.nanoTime();
+        long lastEvict = System.nanoTime();
+        final Set<String> downInterfaces = new HashSet<>();
 
-        ChannelListenr(UdpChannel udpChannel) {
+        ChannelListenr(UdpChannel udpChannel, Handler handler) {
             uch = udpChannel;
+            this.handler = handler;
         }
 
-        @Override
-        public void run() {
-            uch.isRunning = true;
-            uch.handler.onStart(uch);
-            while (uch.isReceiving() && uch.channel.isOpen()) {
+        boolean isRunning() {
+            return running && uch.channel.isOpen();
+        }
+
+        boolean isListenerThread() {
+            Thread t = Thread.currentThread();
+            synchronized (uch.connectedQueue) {
+                return t == this || t == connected;
+            }
+        }
+
+        void stopRunning(boolean drain) {
+            this.drain = drain;
+            running = false;
+            wakeup();
+        }
+
+        void wakeup() {
+            synchronized (uch.connectedQueue) {
+                if (connected != null) {
+                    connected.selector.wakeup();
+                }
+            }
+        }
+
+// registers the cached channel, starts the connected channels listener
+        void connectedOpened(DatagramChannel ch) {
+            synchronized (uch.connectedQueue) {
+                if (!running) {
+                    return;
+                }
+                uch.connectedQueue.add(ch);
+                if (connected != null) {
+                    connected.selector.wakeup();
+                    return;
+                }
                 try {
-                    if (uch.handler instanceof SocketHandler) {
-                        DatagramPacket dp
-                                = new DatagramPacket(new byte[uch.payloadSize], uch.payloadSize);
-                        uch.getSocket().receive(dp);
-                        ((SocketHandler) uch.handler).onPacket(uch, dp);
-                    } else {
-                        ByteBuffer buf = ByteBuffer.allocate(uch.payloadSize);
-//                        int len = ch.channel.read(buf);
-//                        ((ChannelHandler) ch.handler).onPacket(ch, Arrays.copyOf(buf.array(), len));
-                        SocketAddress soc = uch.channel.receive(buf);
-                        if (soc == null) {
-                            continue;
+                    connected = new ConnectedListener();
+                    connected.start();
+                } catch (IOException e) { // called by the cache: do not take the dispatch lock
+                    uch.connectedQueue.clear();
+                    try {
+                        handler.onError(uch, e);
+                    } catch (Exception ignore) {
+                    }
+                }
+            }
+        }
+
+        boolean connectedEvicted(DatagramChannel ch) {
+            synchronized (uch.connectedQueue) {
+                if (!running || connected == null) {
+                    return false;
+                }
+                evictedQueue.add(ch);
+                connected.selector.wakeup();
+                return true;
+            }
+        }
+
+        void dispatch(DatagramPacket dp, long receiveNanos) {
+            long sendNanos = TimedPacket.NO_TIME;
+            if (uch.timestamped && dp.getLength() >= TIMESTAMP_SIZE) {
+                byte[] data = dp.getData();
+                int off = dp.getOffset();
+                sendNanos = 0;
+                for (int i = 0; i < TIMESTAMP_SIZE; i++) {
+                    sendNanos = (sendNanos << 8) | (data[off + i] & 0xFF);
+                }
+                dp.setData(data, off + TIMESTAMP_SIZE, dp.getLength() - TIMESTAMP_SIZE);
+            }
+            backoff = 0;
+            PacketHandler ph = uch.handlerFor(dp.getAddress(), handler);
+            try {
+                if (ph instanceof TimedHandler) {
+                    ((TimedHandler) ph).onPacket(uch,
+                            timedPacket.set(dp, receiveNanos, sendNanos));
+                } else {
+                    ph.onPacket(uch, dp);
+                }
+            } catch (RuntimeException e) {
+                if (!onHandlerError(e)) {
+                    running = false;
+                }
+            }
+        }
+
+// BufferHandler: the payload is between the buffer position and limit
+        void dispatch(ByteBuffer buf, SocketAddress soc, long receiveNanos) {
+            if (!uch.sourceHandlers.isEmpty()
+                    && uch.sourceHandlers.containsKey(((InetSocketAddress) soc).getAddress())) {
+                byte[] data = new byte[buf.remaining()];
+                buf.get(data);
+                dispatch(new DatagramPacket(data, data.length, soc), receiveNanos);
+                return;
+            }
+            if (uch.timestamped && buf.remaining() >= TIMESTAMP_SIZE) {
+                buf.position(buf.position() + TIMESTAMP_SIZE);
+            }
+            backoff = 0;
+            try {
+                ((BufferHandler) handler).onPacket(uch, buf, soc);
+            } catch (RuntimeException e) {
+                if (!onHandlerError(e)) {
+                    running = false;
+                }
+            }
+        }
+
+// BufferHandler: no allocation, the packet is reused
+        DatagramPacket receivePacket() {
+            if (!(handler instanceof BufferHandler)) {
+                return new DatagramPacket(new byte[uch.payloadSize], uch.payloadSize);
+            }
+            if (packet == null || packet.getData().length != uch.payloadSize) {
+                byte[] data = new byte[uch.payloadSize];
+                packet = new DatagramPacket(data, data.length);
+                packetBuffer = ByteBuffer.wrap(data);
+            }
+            packet.setLength(packet.getData().length);
+            return packet;
+        }
+
+        void dispatchPacket(DatagramPacket dp, long receiveNanos) {
+            if (dp != packet) {
+                dispatch(dp, receiveNanos);
+                return;
+            }
+            packetBuffer.clear().limit(dp.getLength());
+            dispatch(packetBuffer, dp.getSocketAddress(), receiveNanos);
+        }
+
+// the socket adaptor receives with timeout, the channel stays in blocking mode
+        void receiveSocket() throws IOException {
+            DatagramSocket socket = uch.getSocket();
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(POLL_TIMEOUT);
+            try {
+                while (isRunning()) {
+                    DatagramPacket dp = receivePacket();
+                    Exception error = null;
+                    try {
+                        socket.receive(dp);
+                    } catch (java.net.SocketTimeoutException e) {
+                        dp = null;
+                    } catch (Exception e) {
+                        error = e;
+                    }
+                    long receiveNanos = System.nanoTime();
+                    synchronized (dispatchLock) {
+                        if (error != null) {
+                            if (!onError(error, uch.socketErrorPolicy)) {
+                                break;
+                            }
+                        } else if (dp == null) {
+                            idle();
+                        } else {
+                            dispatchPacket(dp, receiveNanos);
+                        }
+                        checkInterfaces();
+                    }
+                }
+            } finally {
+                if (uch.channel.isOpen()) {
+                    socket.setSoTimeout(timeout);
+                }
+            }
+        }
+
+// Connected channels of the cache take the datagrams of their peers.
+// The channels are internal and non-blocking, the listener selects them.
+        class ConnectedListener extends Thread {
+
+            final Selector selector;
+
+            ConnectedListener() throws IOException {
+                super(ChannelListenr.this.getName() + "-connected");
+                selector = Selector.open();
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (isRunning()) {
+                        registerConnected();
+                        int selected = selector.select(POLL_TIMEOUT);
+                        synchronized (dispatchLock) {
+                            if (selected > 0) {
+                                receiveSelected();
+                            }
+                            evictConnected();
+                            closeEvicted(true);
+                        }
+                    }
+                } catch (IOException e) {
+                    synchronized (dispatchLock) {
+                        onError(e, uch.socketErrorPolicy);
+                    }
+                } finally {
+                    try {
+                        selector.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+
+            void receiveSelected() {
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    DatagramChannel ch = (DatagramChannel) it.next().channel();
+                    it.remove();
+                    try {
+                        boolean received = false;
+                        while (isRunning() && receiveConnected(ch)) {
+                            received = true;
+                        }
+                        ConnectedCache cc = uch.connectedCache;
+                        if (received && cc != null) {
+                            cc.touch(ch); // idle counts receives too
+                        }
+                    } catch (IOException e) {
+                        if (ch.isOpen() && !onError(e, uch.socketErrorPolicy)) {
+                            running = false;
                         }
-                        buf.flip(); // Prepare for reading
-                        byte[] data = new byte[buf.remaining()];
-                        buf.get(data);
-                        DatagramPacket dp = new DatagramPacket(data, data.length, soc);
-                        ((Handler) uch.handler).onPacket(uch, dp);
                     }
-                } catch (java.net.SocketTimeoutException e) {
+                }
+            }
+
+// registers connected channels of the cache
+            void registerConnected() {
+                DatagramChannel ch;
+                while ((ch = uch.connectedQueue.poll()) != null) {
+                    try {
+                        ch.configureBlocking(false);
+                        ch.register(selector, SelectionKey.OP_READ);
+                    } catch (IOException | RuntimeException ignore) { // evicted
+                    }
+                }
+            }
+        }
+
+        ByteBuffer receiveBuffer() {
+            if (buffer == null || buffer.capacity() != uch.payloadSize) {
+                buffer = ByteBuffer.allocateDirect(uch.payloadSize);
+            }
+            buffer.clear();
+            return buffer;
+        }
+
+// non-blocking receive from the connected channel, returns false if there is no datagram
+        boolean receiveConnected(DatagramChannel ch) throws IOException {
+            if (handler instanceof BufferHandler) {
+                ByteBuffer buf = receiveBuffer();
+                SocketAddress soc = ch.receive(buf);
+                if (soc == null) {
+                    return false;
+                }
+                long receiveNanos = System.nanoTime();
+                buf.flip();
+                dispatch(buf, soc, receiveNanos);
+                return true;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(uch.payloadSize);
+            SocketAddress soc = ch.receive(buf);
+            if (soc == null) {
+                return false;
+            }
+            long receiveNanos = System.nanoTime();
+            dispatch(new DatagramPacket(buf.array(), buf.position(), soc), receiveNanos);
+            return true;
+        }
+
+        void idle() {
+            if (handler instanceof IdleHandler && isRunning()) {
+                try {
+                    ((IdleHandler) handler).onIdle(uch);
+                } catch (RuntimeException e) {
+                    if (!onHandlerError(e)) {
+                        running = false;
+                    }
+                }
+            }
+            for (IdleHandler ih : uch.idleHandlers) {
+                if (!isRunning()) {
+                    return;
+                }
+                try {
+                    ih.onIdle(uch);
+                } catch (RuntimeException e) {
+                    if (!onHandlerError(e)) {
+                        running = false;
+                    }
+                }
+            }
+        }
+
+// evicts idle channels of the cache without waiting for the next send
+        void evictConnected() {
+            ConnectedCache cc = uch.connectedCache;
+            long now = System.nanoTime();
+            if (cc != null && now - lastEvict >= POLL_TIMEOUT * 1000000L) {
+                lastEvict = now;
+                List<DatagramChannel> list = cc.evictIdle();
+                if (list != null) {
+                    evictedQueue.addAll(list);
+                }
+            }
+        }
+
+// delivers the datagrams queued in the evicted channels, closes them
+        void closeEvicted(boolean deliver) {
+            DatagramChannel ch;
+            while ((ch = evictedQueue.poll()) != null) {
+                try {
+                    if (deliver) {
+                        ch.configureBlocking(false);
+                        while (uch.channel.isOpen() && receiveConnected(ch)) {
+                        }
+                    }
+                } catch (IOException ignore) {
+                } finally {
+                    try {
+                        ch.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+        }
+
+// the cache is not used while the listener is stopped
+        void closeConnected() {
+            ConnectedCache cc = uch.connectedCache;
+            if (cc != null) {
+                cc.clear();
+            }
+            closeEvicted(false);
+        }
+
+// delivers datagrams already buffered by the socket and the cached channels
+        void drain() throws IOException {
+            DatagramSocket socket = uch.getSocket();
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                while (uch.channel.isOpen()) {
+                    DatagramPacket dp = receivePacket();
+                    socket.receive(dp);
+                    dispatchPacket(dp, System.nanoTime());
+                }
+            } catch (java.net.SocketTimeoutException e) { // drained
+            } finally {
+                if (uch.channel.isOpen()) {
+                    socket.setSoTimeout(timeout);
+                }
+            }
+            closeEvicted(true);
+            ConnectedCache cc = uch.connectedCache;
+            if (cc == null || handler instanceof SocketHandler) {
+                return;
+            }
+            for (DatagramChannel ch : cc.channels()) {
+                try {
+                    ch.configureBlocking(false);
+                    while (uch.channel.isOpen() && receiveConnected(ch)) {
+                    }
+                } catch (IOException ignore) { // evicted
+                }
+            }
+        }
+
+        boolean onHandlerError(RuntimeException e) {
+            return onError(e, uch.handlerErrorPolicy, false);
+        }
+
+        boolean onError(Exception e, ErrorPolicy policy) {
+            return onError(e, policy, true);
+        }
+
+// returns true to continue receiving.
+// Handler errors have nothing to do with memberships: backoff does not rejoin.
+        boolean onError(Exception e, ErrorPolicy policy, boolean socketError) {
+            if (!isRunning()) {
+                return false;
+            }
+            if (e instanceof PortUnreachableException && policy == ErrorPolicy.CLOSE) {
+                policy = ErrorPolicy.CONTINUE; // ICMP reply to the previous send
+            }
+            try {
+                handler.onError(uch, e);
+            } catch (Exception ignore) {
+            }
+            if (policy == ErrorPolicy.CONTINUE) {
+                return true;
+            }
+            if (policy == ErrorPolicy.BACKOFF) {
+                return backoff(socketError);
+            }
+            try {
+                uch.close();
+            } catch (Exception ignore) {
+            }
+            return false;
+        }
+
+        boolean backoff(boolean rejoin) {
+            backoff = backoff == 0 ? BACKOFF_MIN : Math.min(backoff * 2, BACKOFF_MAX);
+            long deadline = System.nanoTime() + backoff * 1000000L;
+            while (isRunning() && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(Math.min(deadline - System.nanoTime(),
+                        POLL_TIMEOUT * 1000000L));
+            }
+            if (rejoin && isRunning() && !uch.memberships.isEmpty()) {
+                try {
+                    uch.rejoin();
                 } catch (Exception e) {
-                    if (!isReceiving() || !uch.channel.isOpen()) { // !(isReceivimg() && channel.isOpen())
-                        break;
+                    try {
+                        handler.onError(uch, e);
+                    } catch (Exception ignore) {
                     }
+                }
+            }
+            return isRunning();
+        }
+
+// rejoins groups when the interface comes back up or is recreated
+        void checkInterfaces() {
+            int interval = uch.rejoinInterval;
+            if (!running || interval <= 0 || uch.memberships.isEmpty()
+                    || System.nanoTime() - lastCheck < interval * 1000000L) {
+                return;
+            }
+            lastCheck = System.nanoTime();
+            boolean rejoin = false;
+            Map<String, Boolean> checked = new HashMap<>();
+            try {
+                for (MembershipKey key : uch.memberships) {
+                    NetworkInterface ni = key.networkInterface();
+                    String name = ni.getName();
+                    if (checked.containsKey(name)) {
+                        continue;
+                    }
+                    NetworkInterface current = NetworkInterface.getByName(name);
+                    boolean up = current != null && current.isUp();
+                    checked.put(name, up);
+                    if (!up) {
+                        downInterfaces.add(name);
+                    } else if (downInterfaces.remove(name)
+                            || current.getIndex() != ni.getIndex()) {
+                        rejoin = true;
+                    }
+                }
+                if (rejoin) {
+                    uch.rejoin();
+                }
+            } catch (Exception e) {
+                onError(e, uch.socketErrorPolicy == ErrorPolicy.CLOSE
+                        ? ErrorPolicy.CONTINUE : uch.socketErrorPolicy);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                handler.onStart(uch);
+                ConnectedCache cc = uch.connectedCache;
+                if (handler instanceof SocketHandler) {
+                    if (cc != null) {
+                        cc.clear(); // datagrams of the cached peers go to the channel
+                    }
+                } else if (cc != null) {
+                    for (DatagramChannel ch : cc.channels()) {
+                        connectedOpened(ch);
+                    }
+                }
+                receiveSocket();
+                stopConnected();
+                if (drain) {
+                    drain();
+                }
+            } catch (Exception e) {
+                if (uch.channel.isOpen()) {
                     try {
-                        uch.handler.onError(uch, e);
-                        uch.close();
+                        handler.onError(uch, e);
                     } catch (Exception ignore) {
                     }
                 }
+            } finally {
+                running = false;
+                stopConnected();
+                closeConnected();
+                terminated.countDown();
+            }
+        }
+
+        void stopConnected() {
+            ConnectedListener cl;
+            synchronized (uch.connectedQueue) {
+                running = false;
+                uch.connectedQueue.clear();
+                cl = connected;
+            }
+            if (cl != null && cl != Thread.currentThread()) {
+                cl.selector.wakeup();
+                try {
+                    cl.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
         }
     }
 
     public void receive(UdpChannel.Handler handler) throws IOException {
-        if (isReceiving()) {
-            throw new IllegalStateException("Already receiving");
+        if (handler == null) {
+            throw new NullPointerException("No handler");
+        }
+        startReceiving(handler);
+    }
+
+// Receives by the packet handler (UdpServer, UdpRequester, MessageUnpacker...).
+// Listener errors are handled by the error policies, not reported.
+    public void receive(UdpChannel.PacketHandler handler) throws IOException {
+        if (handler instanceof Handler) {
+            receive((Handler) handler);
+            return;
         }
         if (handler == null) {
             throw new NullPointerException("No handler");
         }
-        bind();
+        startReceiving(new PacketAdapter(handler));
+    }
+
+    static final class PacketAdapter implements Handler, IdleHandler {
+
+        final PacketHandler handler;
+
+        PacketAdapter(PacketHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void onStart(UdpChannel uc) {
+        }
+
+        @Override
+        public void onError(UdpChannel uc, Exception e) {
+        }
+
+        @Override
+        public void onClose(UdpChannel uc) {
+        }
+
+        @Override
+        public void onPacket(UdpChannel uc, DatagramPacket dp) {
+            handler.onPacket(uc, dp);
+        }
+
+        @Override
+        public void onIdle(UdpChannel uc) {
+            if (handler instanceof IdleHandler) {
+                ((IdleHandler) handler).onIdle(uc);
+            }
+        }
+    }
+
+    void startReceiving(UdpChannel.Handler handler) throws IOException {
+        while (true) {
+            ChannelListenr l;
+            synchronized (this) {
+                if (isReceiving()) {
+                    throw new IllegalStateException("Already receiving");
+                }
+                if (!isOpen()) {
+                    throw new ClosedChannelException();
+                }
+                l = listener;
+                if (l == null || l.terminated.getCount() == 0) {
+                    bind();
 //        if (handler instanceof ChannelHandler && !isConnected()) {
 //            connect();
 //        }
-        this.handler = handler;
-        (new ChannelListenr(this)).start();
+                    this.handler = handler;
+                    listener = new ChannelListenr(this, handler);
+                    listener.start();
+                    return;
+                }
+                if (l.isListenerThread()) {
+                    throw new IllegalStateException("Called from the handler");
+                }
+            }
+// the previous listener is stopping: wait outside the lock, then recheck
+            try {
+                l.terminated.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    public UdpChannel stopReceiving() {
+        return stopReceiving(false);
+    }
+
+    public synchronized UdpChannel stopReceiving(boolean drain) {
+        ChannelListenr l = listener;
+        if (l != null) {
+            l.stopRunning(drain);
+        }
+        return this;
+    }
+
+    public void resumeReceiving() throws IOException {
+        Handler h = handler;
+        if (h == null) {
+            throw new IllegalStateException("No handler");
+        }
+        startReceiving(h);
+    }
+
+    public boolean awaitTermination(long millis) throws InterruptedException {
+        ChannelListenr l = listener;
+        if (l == null || Thread.currentThread() == l) {
+            return l == null;
+        }
+        return l.terminated.await(millis, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void close() throws IOException {
-        if (isReceiving()) {
-            isRunning = false;
-            handler.onClose(this);
+        Handler h;
+        ChannelListenr l;
+        synchronized (this) {
+            h = handler;
+            l = listener;
             handler = null;
+            if (l != null) {
+                l.stopRunning(false);
+            }
+        }
+        if (l != null && Thread.currentThread() != l) {
+            try {
+                l.terminated.await(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (h != null) {
+            h.onClose(this);
+        }
+        memberships.clear();
+        sourceHandlers.clear();
+        blockedSources.clear();
+        ConnectedCache cc = connectedCache;
+        connectedCache = null;
+        if (cc != null) {
+            cc.clear();
         }
+        connectedQueue.clear();
         try {
             ((MulticastChannel) channel).close();
         } catch (IOException ignore) {
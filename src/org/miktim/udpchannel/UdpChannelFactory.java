@@ -0,0 +1,298 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Parallel bulk creation of multicast subscriptions
+ *
+ * Created 2025-06-20
+ */
+package org.miktim.udpchannel;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.channels.MembershipKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ Specs with the same mode, port, interface and address family share
+ UdpChannels bound to the port (reuse enabled), each joined to at most
+ groupsPerChannel groups: Linux limits the memberships per socket
+ (net.ipv4.igmp_max_memberships, default 20).
+ Channels are created and joined in parallel, one task per shared channel.
+ */
+public final class UdpChannelFactory {
+
+    public static final class Spec {
+
+        private final String mode;
+        private final InetAddress group;
+        private final int port;
+        private final NetworkInterface intf;
+        private final InetAddress source;
+
+        public Spec(String mode, InetAddress group, int port,
+                NetworkInterface intf, InetAddress source) {
+            if (group == null) {
+                throw new NullPointerException("No group");
+            }
+            if (intf == null) {
+                throw new NullPointerException("No interface"); // join requires it
+            }
+            this.mode = mode == null ? "AUTO" : mode.toUpperCase();
+            this.group = group;
+            this.port = port;
+            this.intf = intf;
+            this.source = source;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        public InetAddress getGroup() {
+            return group;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public NetworkInterface getNetworkInterface() {
+            return intf;
+        }
+
+        public InetAddress getSource() {
+            return source;
+        }
+
+        String channelKey() {
+            return String.format("%s %d %s %s", mode, port,
+                    intf == null ? "" : intf.getName(),
+                    group instanceof Inet6Address ? "6" : "4");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s:%d %s %s", mode, group, port,
+                    intf == null ? "null" : intf.getName(),
+                    source == null ? "" : source);
+        }
+    }
+
+    public static final class Result {
+
+        private final Spec spec;
+        private final int channelIndex;
+        private UdpChannel channel;
+        private MembershipKey key;
+        private Exception error;
+
+        Result(Spec spec, int channelIndex) {
+            this.spec = spec;
+            this.channelIndex = channelIndex;
+        }
+
+        public Spec getSpec() {
+            return spec;
+        }
+
+        public UdpChannel getChannel() {
+            return channel;
+        }
+
+// index of the shared channel in the creation order
+        public int getChannelIndex() {
+            return channelIndex;
+        }
+
+        public MembershipKey getMembershipKey() {
+            return key;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isOk() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return spec + " channel: " + channelIndex + (isOk() ? " Ok" : " " + error);
+        }
+    }
+
+    private final List<Spec> specs = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int payloadSize = 1500;
+    private int receiveBufferSize = 0; // system default
+    private boolean loopback = true;
+    private int groupsPerChannel = GROUPS_PER_CHANNEL;
+
+    public static final int GROUPS_PER_CHANNEL = 20; // Linux default limit
+
+    public UdpChannelFactory() {
+    }
+
+    public UdpChannelFactory add(Spec spec) {
+        specs.add(spec);
+        return this;
+    }
+
+    public UdpChannelFactory add(InetAddress group, int port,
+            NetworkInterface intf, InetAddress source) {
+        return add(new Spec("AUTO", group, port, intf, source));
+    }
+
+    public UdpChannelFactory add(InetAddress group, int port, NetworkInterface intf) {
+        return add(group, port, intf, null);
+    }
+
+    public List<Spec> getSpecs() {
+        return specs;
+    }
+
+    public UdpChannelFactory setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public UdpChannelFactory setGroupsPerChannel(int groups) {
+        if (groups < 1) {
+            throw new IllegalArgumentException("Groups per channel");
+        }
+        groupsPerChannel = groups;
+        return this;
+    }
+
+    public int getGroupsPerChannel() {
+        return groupsPerChannel;
+    }
+
+    public UdpChannelFactory setPayloadSize(int size) {
+        payloadSize = size;
+        return this;
+    }
+
+    public UdpChannelFactory setReceiveBufferSize(int size) {
+        receiveBufferSize = size;
+        return this;
+    }
+
+    public UdpChannelFactory setLoopback(boolean enable) {
+        loopback = enable;
+        return this;
+    }
+
+    UdpChannel createChannel(Spec spec) throws IOException {
+        UdpChannel uc = new UdpChannel(spec.getMode(),
+                new InetSocketAddress(spec.getGroup(), spec.getPort()),
+                spec.getNetworkInterface());
+        try {
+            uc.setPayloadSize(payloadSize).setLoopback(loopback);
+            if (receiveBufferSize > 0) {
+                uc.setReceiveBufferSize(receiveBufferSize);
+            }
+            uc.bind();
+        } catch (IOException | RuntimeException e) {
+            uc.close();
+            throw e;
+        }
+        return uc;
+    }
+
+    void subscribe(List<Result> results) {
+        UdpChannel uc;
+        try {
+            uc = createChannel(results.get(0).getSpec());
+        } catch (Exception e) {
+            for (Result r : results) {
+                r.error = e;
+            }
+            return;
+        }
+        boolean joined = false;
+        for (Result r : results) {
+            try {
+                r.key = uc.join(r.getSpec().getGroup(), r.getSpec().getSource());
+                r.channel = uc;
+                joined = true;
+            } catch (Exception e) {
+                r.error = e;
+            }
+        }
+        if (!joined) {
+            try {
+                uc.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+/*
+ Creates channels and joins groups. Returns results in the order of specs.
+ Failed specs do not affect the others: check Result.isOk().
+ */
+    public List<Result> create() throws InterruptedException {
+        List<Result> results = new ArrayList<>(specs.size());
+        Map<String, List<Result>> shared = new LinkedHashMap<>(); // open channels
+        List<List<Result>> channels = new ArrayList<>();
+        for (Spec spec : specs) {
+            List<Result> list = shared.get(spec.channelKey());
+            if (list == null || list.size() >= groupsPerChannel) {
+                list = new ArrayList<>();
+                shared.put(spec.channelKey(), list);
+                channels.add(list);
+            }
+            Result r = new Result(spec, channels.size() - 1);
+            results.add(r);
+            list.add(r);
+        }
+        if (channels.isEmpty()) {
+            return results;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(channels.size());
+        for (final List<Result> list : channels) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    subscribe(list);
+                    return null;
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, tasks.size())));
+        try {
+            executor.invokeAll(tasks);
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+/*
+ Returns distinct channels of the successful results.
+ */
+    public static List<UdpChannel> channels(List<Result> results) {
+        List<UdpChannel> list = new ArrayList<>();
+        for (Result r : results) {
+            if (r.isOk() && !list.contains(r.getChannel())) {
+                list.add(r.getChannel());
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Request/response correlation over UDP
+ *
+ * Created 2025-06-30
+ */
+package org.miktim.udpchannel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ Datagram format: type byte (REQUEST or RESPONSE), 64-bit big-endian
+ correlation id, payload.
+ Pending requests are kept in the long-keyed table, timeouts are scheduled
+ on the hashed timer wheel. A timed out request is resent while retries
+ remain, so the responder may receive duplicates (at-least-once).
+ Replies and requests come from the channel: uc.receive(requester).
+ */
+public final class UdpRequester implements UdpChannel.PacketHandler, Closeable {
+
+    public static final byte REQUEST = 1;
+    public static final byte RESPONSE = 2;
+    public static final int HEADER_SIZE = 9;
+    public static final int DEFAULT_TIMEOUT = 1000; // millis
+
+    public interface RequestHandler {
+
+        void onRequest(UdpRequester requester, long id, DatagramPacket dp);
+    }
+
+    public interface Callback {
+
+        void onReply(Request request, DatagramPacket dp);
+
+        void onError(Request request, Exception e);
+    }
+
+    public static final class Request extends TimerWheel.Timer
+            implements Future<DatagramPacket> {
+
+        private final UdpRequester requester;
+        private final long id;
+        private final byte[] message;
+        private final SocketAddress target;
+        private final int timeout;
+        private int retries;
+        private boolean done = false;
+        private boolean cancelled = false;
+        private DatagramPacket reply;
+        private Exception error;
+        private Callback callback;
+
+        Request(UdpRequester requester, long id, byte[] message,
+                SocketAddress target, int timeout, int retries) {
+            this.requester = requester;
+            this.id = id;
+            this.message = message;
+            this.target = target;
+            this.timeout = timeout;
+            this.retries = retries;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public SocketAddress getTarget() {
+            return target;
+        }
+
+// the callback is called immediately if the request is done
+        public Request setCallback(Callback cb) {
+            synchronized (this) {
+                if (!done) {
+                    callback = cb;
+                    return this;
+                }
+            }
+            invoke(cb);
+            return this;
+        }
+
+        void invoke(Callback cb) {
+            if (cb == null || cancelled) {
+                return;
+            }
+            if (error == null) {
+                cb.onReply(this, reply);
+            } else {
+                cb.onError(this, error);
+            }
+        }
+
+        boolean complete(DatagramPacket dp, Exception e, boolean cancel) {
+            Callback cb;
+            synchronized (this) {
+                if (done) {
+                    return false;
+                }
+                done = true;
+                cancelled = cancel;
+                reply = dp;
+                error = e;
+                cb = callback;
+                notifyAll();
+            }
+            invoke(cb);
+            return true;
+        }
+
+        @Override
+        void expire() {
+            requester.onTimeout(this);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            requester.remove(this);
+            return complete(null, null, true);
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        public synchronized Exception getError() {
+            return error;
+        }
+
+        DatagramPacket result() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return reply;
+        }
+
+        @Override
+        public synchronized DatagramPacket get()
+                throws InterruptedException, ExecutionException {
+            while (!done) {
+                wait();
+            }
+            return result();
+        }
+
+        @Override
+        public synchronized DatagramPacket get(long time, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(time);
+            while (!done) {
+                long delay = deadline - System.nanoTime();
+                if (delay <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, delay);
+            }
+            return result();
+        }
+    }
+
+    private final UdpChannel channel;
+    private final TimerWheel wheel;
+    private final LongMap<Request> pending = new LongMap<>(1024);
+    private long nextId = new Random().nextLong();
+    private long malformed;
+    private volatile RequestHandler requestHandler;
+    private volatile boolean closed = false;
+
+/*
+ tickMillis: timeout resolution
+ slots: timer wheel size, timeouts up to slots * tickMillis take one round
+ */
+    public UdpRequester(UdpChannel uc, int tickMillis, int slots) {
+        channel = uc;
+        wheel = new TimerWheel("UdpRequester", tickMillis, slots);
+    }
+
+    public UdpRequester(UdpChannel uc) {
+        this(uc, 10, 512);
+    }
+
+    public UdpChannel getChannel() {
+        return channel;
+    }
+
+    public UdpRequester setRequestHandler(RequestHandler handler) {
+        requestHandler = handler;
+        return this;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getMalformedCount() {
+        return malformed;
+    }
+
+    static void putLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+
+    static byte[] message(byte type, long id, byte[] payload) {
+        byte[] msg = new byte[HEADER_SIZE + payload.length];
+        msg[0] = type;
+        putLong(msg, 1, id);
+        System.arraycopy(payload, 0, msg, HEADER_SIZE, payload.length);
+        return msg;
+    }
+
+    public Request request(byte[] payload, SocketAddress target, int timeoutMillis, int retries)
+            throws IOException {
+        Request r;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Closed");
+            }
+            long id = nextId++;
+            r = new Request(this, id, message(REQUEST, id, payload),
+                    target, timeoutMillis, retries);
+            pending.put(id, r);
+        }
+        wheel.schedule(r, timeoutMillis);
+        try {
+            channel.send(r.message, target);
+        } catch (IOException e) {
+            remove(r);
+            throw e;
+        }
+        return r;
+    }
+
+    public Request request(byte[] payload) throws IOException {
+        return request(payload, channel.getRemote(), DEFAULT_TIMEOUT, 0);
+    }
+
+    public int reply(long id, SocketAddress target, byte[] payload) throws IOException {
+        return channel.send(message(RESPONSE, id, payload), target);
+    }
+
+    synchronized boolean remove(Request r) {
+        wheel.cancel(r);
+        return pending.get(r.id) == r && pending.remove(r.id) != null;
+    }
+
+    void onTimeout(Request r) {
+        synchronized (this) {
+            if (pending.get(r.id) != r) {
+                return;
+            }
+            if (r.retries-- > 0) {
+                wheel.schedule(r, r.timeout);
+            } else {
+                pending.remove(r.id);
+                r.retries = -1;
+            }
+        }
+        if (r.retries < 0) {
+            r.complete(null, new SocketTimeoutException("Request timeout"), false);
+            return;
+        }
+        try {
+            channel.send(r.message, r.target);
+        } catch (IOException e) {
+            remove(r);
+            r.complete(null, e, false);
+        }
+    }
+
+// drops and counts malformed datagrams: network input must not close the channel
+    @Override
+    public void onPacket(UdpChannel uc, DatagramPacket dp) {
+        byte[] data = dp.getData();
+        int off = dp.getOffset();
+        int len = dp.getLength();
+        if (len < HEADER_SIZE || (data[off] != REQUEST && data[off] != RESPONSE)) {
+            synchronized (this) {
+                malformed++;
+            }
+            return;
+        }
+        long id = getLong(data, off + 1);
+        dp.setData(data, off + HEADER_SIZE, len - HEADER_SIZE);
+        if (data[off] == REQUEST) {
+            RequestHandler rh = requestHandler;
+            if (rh != null) {
+                rh.onRequest(this, id, dp);
+            }
+            return;
+        }
+        Request r;
+        synchronized (this) {
+            r = pending.remove(id);
+            if (r != null) {
+                wheel.cancel(r);
+            }
+        }
+        if (r != null) { // late replies are ignored
+            r.complete(dp, null, false);
+        }
+    }
+
+// fails pending requests, does not close the channel
+    @Override
+    public void close() {
+        Object[] requests;
+        int count;
+        synchronized (this) {
+            closed = true;
+            requests = new Object[pending.size()];
+            count = pending.values(requests);
+            pending.clear();
+        }
+        wheel.stop();
+        for (int i = 0; i < count; i++) {
+            ((Request) requests[i]).complete(null, new IOException("Closed"), false);
+        }
+    }
+}
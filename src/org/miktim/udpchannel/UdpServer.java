@@ -0,0 +1,326 @@
+/**
+ * UdpChannel package, MIT (c) 2025 miktim@mail.ru
+ * Unicast server: per-peer session table with idle eviction
+ *
+ * Created 2025-07-02
+ */
+package org.miktim.udpchannel;
+
+import java.net.DatagramPacket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Sessions are kept in the open addressing table keyed by the peer address
+ packed into primitives: two longs (IPv6 or IPv4-mapped address) and the port.
+ IPv4 keys are built without allocation; IPv6 keys copy the address bytes
+ (the JDK does not expose them otherwise).
+ Idle sessions are evicted incrementally: each received datagram checks
+ a few table slots, each idle wakeup of the channel listener checks more.
+ Serve the channel: uc.receive(server).
+ */
+public final class UdpServer
+        implements UdpChannel.PacketHandler, UdpChannel.IdleHandler {
+
+    public interface SessionHandler {
+
+        void onOpen(UdpServer server, Session session); // new peer
+
+        void onPacket(UdpServer server, Session session, DatagramPacket dp);
+
+        void onEvict(UdpServer server, Session session); // idle peer
+    }
+
+    public static final class Session {
+
+        private final InetSocketAddress address;
+        private final long hi;
+        private final long lo;
+        private final int port;
+        private final long openNanos;
+        private volatile long lastNanos;
+        private volatile long packets;
+        private volatile long bytes;
+        private volatile Object state;
+
+        Session(InetSocketAddress address, long hi, long lo, int port, long now) {
+            this.address = address;
+            this.hi = hi;
+            this.lo = lo;
+            this.port = port;
+            openNanos = now;
+            lastNanos = now;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public long getOpenNanos() {
+            return openNanos;
+        }
+
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        public long getPacketCount() {
+            return packets;
+        }
+
+        public long getByteCount() {
+            return bytes;
+        }
+
+        public Object getState() {
+            return state;
+        }
+
+        public Session setState(Object state) {
+            this.state = state;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s packets: %d bytes: %d", address, packets, bytes);
+        }
+    }
+
+    static final long IPV4_MAPPED = 0xFFFFL << 32;
+    static final int EVICT_STEP = 4; // slots checked per datagram
+    static final int IDLE_EVICT_STEP = 256; // slots checked per idle wakeup
+
+    private final SessionHandler handler;
+    private final long idleNanos;
+    private long[] his;
+    private long[] los;
+    private int[] ports;
+    private Session[] sessions;
+    private int size;
+    private int mask;
+    private int cursor; // eviction cursor
+    private long evicted;
+
+    public UdpServer(SessionHandler handler, int idleTimeoutMillis, int capacity) {
+        if (handler == null) {
+            throw new NullPointerException("No handler");
+        }
+        this.handler = handler;
+        idleNanos = idleTimeoutMillis * 1000000L;
+        allocate(Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1);
+    }
+
+    public UdpServer(SessionHandler handler, int idleTimeoutMillis) {
+        this(handler, idleTimeoutMillis, 1024);
+    }
+
+    private void allocate(int capacity) {
+        his = new long[capacity];
+        los = new long[capacity];
+        ports = new int[capacity];
+        sessions = new Session[capacity];
+        mask = capacity - 1;
+    }
+
+    static long high(byte[] b) {
+        if (b == null) {
+            return 0;
+        }
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[i] & 0xFF);
+        }
+        return v;
+    }
+
+    static long low(InetAddress addr, byte[] b) {
+        if (b == null) {
+// Inet4Address.hashCode() is the address
+            return IPV4_MAPPED | (addr.hashCode() & 0xFFFFFFFFL);
+        }
+        long v = 0;
+        for (int i = 8; i < 16; i++) {
+            v = (v << 8) | (b[i] & 0xFF);
+        }
+        return v;
+    }
+
+    static int hash(long hi, long lo, int port) {
+        long h = (hi * 31 + lo) * 0x9E3779B97F4A7C15L + port;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long hi, long lo, int port) {
+        for (int i = hash(hi, lo, port) & mask; sessions[i] != null; i = (i + 1) & mask) {
+            if (los[i] == lo && his[i] == hi && ports[i] == port) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(Session s) {
+        int i = hash(s.hi, s.lo, s.port) & mask;
+        while (sessions[i] != null) {
+            i = (i + 1) & mask;
+        }
+        his[i] = s.hi;
+        los[i] = s.lo;
+        ports[i] = s.port;
+        sessions[i] = s;
+    }
+
+// backward shift deletion
+    private void delete(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            Session s = sessions[i];
+            if (s == null) {
+                break;
+            }
+            int home = hash(s.hi, s.lo, s.port) & mask;
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                his[gap] = his[i];
+                los[gap] = los[i];
+                ports[gap] = ports[i];
+                sessions[gap] = s;
+                gap = i;
+            }
+        }
+        sessions[gap] = null;
+        size--;
+    }
+
+    private void grow() {
+        Session[] old = sessions;
+        allocate(old.length * 2);
+        for (Session s : old) {
+            if (s != null) {
+                insert(s);
+            }
+        }
+    }
+
+    Session session(InetAddress addr, int port, long now) {
+        byte[] b = addr instanceof Inet4Address ? null : addr.getAddress();
+        long hi = high(b);
+        long lo = low(addr, b);
+        int i = find(hi, lo, port);
+        if (i >= 0) {
+            return sessions[i];
+        }
+        Session s = new Session(new InetSocketAddress(addr, port), hi, lo, port, now);
+        if (++size * 2 > sessions.length) {
+            grow();
+        }
+        insert(s);
+        return s;
+    }
+
+    @Override
+    public void onPacket(UdpChannel uc, DatagramPacket dp) {
+        long now = System.nanoTime();
+        Session s;
+        boolean opened;
+        synchronized (this) {
+            s = session(dp.getAddress(), dp.getPort(), now);
+            opened = s.packets == 0; // new session
+            s.lastNanos = now;
+            s.packets++;
+            s.bytes += dp.getLength();
+        }
+        if (opened) {
+            handler.onOpen(this, s);
+        }
+        handler.onPacket(this, s, dp);
+        evict(now, EVICT_STEP);
+    }
+
+    @Override
+    public void onIdle(UdpChannel uc) {
+        evict(System.nanoTime(), IDLE_EVICT_STEP);
+    }
+
+// checks count slots from the cursor, evicts idle sessions
+    List<Session> evictSlots(long now, int count) {
+        List<Session> list = null;
+        synchronized (this) {
+            for (int n = 0; n < count && size > 0; n++) {
+                cursor = (cursor + 1) & mask;
+                Session s = sessions[cursor];
+                if (s != null && now - s.lastNanos > idleNanos) {
+                    delete(cursor);
+                    evicted++;
+                    cursor = (cursor - 1) & mask; // recheck the shifted slot
+                    n--;
+                    if (list == null) {
+                        list = new ArrayList<>();
+                    }
+                    list.add(s);
+                }
+            }
+        }
+        return list;
+    }
+
+    void evict(long now, int count) {
+        List<Session> list = evictSlots(now, count);
+        if (list != null) {
+            for (Session s : list) {
+                handler.onEvict(this, s);
+            }
+        }
+    }
+
+// checks the whole table
+    public void evictIdle() {
+        int count;
+        synchronized (this) {
+            count = sessions.length;
+        }
+        evict(System.nanoTime(), count);
+    }
+
+    public synchronized Session getSession(InetSocketAddress peer) {
+        InetAddress addr = peer.getAddress();
+        byte[] b = addr instanceof Inet4Address ? null : addr.getAddress();
+        int i = find(high(b), low(addr, b), peer.getPort());
+        return i < 0 ? null : sessions[i];
+    }
+
+    public synchronized Session removeSession(InetSocketAddress peer) {
+        InetAddress addr = peer.getAddress();
+        byte[] b = addr instanceof Inet4Address ? null : addr.getAddress();
+        int i = find(high(b), low(addr, b), peer.getPort());
+        if (i < 0) {
+            return null;
+        }
+        Session s = sessions[i];
+        delete(i);
+        return s;
+    }
+
+    public synchronized List<Session> getSessions() {
+        List<Session> list = new ArrayList<>(size);
+        for (Session s : sessions) {
+            if (s != null) {
+                list.add(s);
+            }
+        }
+        return list;
+    }
+
+    public synchronized int getSessionCount() {
+        return size;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evicted;
+    }
+}
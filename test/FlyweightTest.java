@@ -0,0 +1,88 @@
+/**
+ * UdpChannel FlyweightTest, MIT (c) 2025 miktim@mail.ru
+ * Flyweight message codec, zero-copy BufferHandler receiver
+ * Quote.java is generated from Quote.schema by FlyweightGenerator
+ */
+import java.io.IOException;
+import static java.lang.String.format;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import org.miktim.udpchannel.UdpChannel;
+
+public class FlyweightTest {
+
+    static final int PORT = 9099;
+    static final int COUNT = 100000;
+
+    static void log(Object obj) {
+        System.out.println(String.valueOf(obj));
+    }
+
+    static long received = 0;
+    static long errors = 0;
+
+    static UdpChannel.BufferHandler handler = new UdpChannel.BufferHandler() {
+        final Quote quote = new Quote();
+        final byte[] symbol = new byte[Quote.SYMBOL_LENGTH];
+
+        @Override
+        public void onStart(UdpChannel uc) {
+        }
+
+        @Override
+        public void onError(UdpChannel uc, Exception e) {
+            log("err: " + e);
+        }
+
+        @Override
+        public void onClose(UdpChannel uc) {
+        }
+
+        @Override
+        public void onPacket(UdpChannel uc, DatagramPacket dp) {
+        }
+
+        @Override
+        public void onPacket(UdpChannel uc, ByteBuffer buf, SocketAddress source) {
+            quote.wrap(buf);
+            quote.getSymbol(symbol);
+            long id = quote.id();
+            if (quote.price() != id / 100.0 || quote.qty() != (int) id || symbol[0] != 'Q') {
+                errors++;
+            }
+            received++;
+        }
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        log(format("UdpChannel %s flyweight test", UdpChannel.VERSION));
+        if (!UdpChannel.isAvailable(PORT)) {
+            log("Port unavailable: " + PORT);
+            System.exit(1);
+        }
+        UdpChannel uc = new UdpChannel(
+                new InetSocketAddress(InetAddress.getByName("127.0.0.1"), PORT), null);
+        uc.setReceiveBufferSize(4 * 1024 * 1024);
+        uc.receive(handler);
+        Thread.sleep(200);
+
+        ByteBuffer sendBuffer = ByteBuffer.allocateDirect(Quote.SIZE);
+        Quote quote = new Quote();
+        quote.wrap(sendBuffer, 0);
+        quote.symbol("QUOTE001".getBytes());
+        for (long id = 0; id < COUNT; id++) {
+            quote.id(id).price(id / 100.0).qty((int) id);
+            quote.send(uc);
+            if (id % 1000 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        Thread.sleep(500);
+        uc.close();
+        log(format("Messages sent: %d received: %d errors: %d", COUNT, received, errors));
+        log("\nCompleted");
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * UdpChannel LatencyTest, MIT (c) 2025 miktim@mail.ru
+ * Timestamped channel, one-way loopback latency histogram
+ */
+import java.io.IOException;
+import static java.lang.String.format;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import org.miktim.udpchannel.LatencyHistogram;
+import org.miktim.udpchannel.TimedPacket;
+import org.miktim.udpchannel.UdpChannel;
+
+public class LatencyTest {
+
+    static final int PORT = 9099;
+    static final int COUNT = 10000;
+    static final int PAYLOAD = 64;
+
+    static void log(Object obj) {
+        System.out.println(String.valueOf(obj));
+    }
+
+    static final LatencyHistogram latency = new LatencyHistogram();
+    static final LatencyHistogram dispatch = new LatencyHistogram();
+
+    static UdpChannel.TimedHandler handler = new UdpChannel.TimedHandler() {
+        @Override
+        public void onStart(UdpChannel uc) {
+        }
+
+        @Override
+        public void onError(UdpChannel uc, Exception e) {
+            log("err: " + e);
+        }
+
+        @Override
+        public void onClose(UdpChannel uc) {
+        }
+
+        @Override
+        public void onPacket(UdpChannel uc, DatagramPacket dp) {
+        }
+
+        @Override
+        public void onPacket(UdpChannel uc, TimedPacket tp) {
+            latency.record(tp.getLatencyNanos());
+            dispatch.record(tp.getDispatchNanos() - tp.getReceiveNanos());
+        }
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        log(format("UdpChannel %s latency test", UdpChannel.VERSION));
+        if (!UdpChannel.isAvailable(PORT)) {
+            log("Port unavailable: " + PORT);
+            System.exit(1);
+        }
+        InetSocketAddress loopSoc
+                = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), PORT);
+        UdpChannel uc = new UdpChannel(loopSoc, null).setTimestamped(true);
+        uc.receive(handler);
+        Thread.sleep(200);
+        byte[] payload = new byte[PAYLOAD];
+        for (int i = 0; i < COUNT; i++) {
+            uc.send(payload);
+            if (i % 100 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        Thread.sleep(500);
+        uc.close();
+        log(format("Packets sent: %d received: %d", COUNT, latency.getCount()));
+        log("Latency, ns:  " + latency);
+        log("Dispatch, ns: " + dispatch);
+        log("\nCompleted");
+    }
+}
@@ -0,0 +1,401 @@
+/**
+ * UdpChannel LoadTest, MIT (c) 2025 miktim@mail.ru
+ * Load generator and sink: rate, loss, reordering, latency percentiles
+ *
+ * Usage: java LoadTest [both|gen|sink] [key=value ...]
+ *   address=127.0.0.1  unicast, broadcast or multicast remote address
+ *   port=9099
+ *   intf=              interface name (multicast)
+ *   rate=10000         datagrams per second, all threads
+ *   threads=1          sender threads
+ *   min=64 max=64      payload size range, bytes
+ *   dist=uniform       size distribution in the range: uniform, normal, exp
+ *   sizes=             weighted sizes instead of the range, e.g. IMIX: 64:7,576:4,1500:1
+ *   duration=10        seconds, 0 - until killed (soak test)
+ *   report=5           report interval, seconds
+ * Sender and sink must share the clock (same host) for the latency.
+ */
+import java.io.IOException;
+import static java.lang.String.format;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.miktim.udpchannel.LatencyHistogram;
+import org.miktim.udpchannel.TimedPacket;
+import org.miktim.udpchannel.UdpChannel;
+
+public class LoadTest {
+
+    static final int HEADER_SIZE = 12; // stream id, sequence number
+    static final long FIN = Long.MIN_VALUE; // sequence flag: sent count of the stream
+    static final int FIN_REPEAT = 3;
+
+    static String address = "127.0.0.1";
+    static int port = 9099;
+    static String intf = null;
+    static int rate = 10000;
+    static int threads = 1;
+    static int minSize = 64;
+    static int maxSize = 64;
+    static String dist = "uniform";
+    static int[] sizes = null; // weighted sizes
+    static int[] weights = null;
+    static int duration = 10;
+    static int report = 5;
+
+    static void log(Object obj) {
+        System.out.println(String.valueOf(obj));
+    }
+
+    static final AtomicLong sent = new AtomicLong();
+    static final AtomicLong sendErrors = new AtomicLong();
+    static volatile boolean running = true;
+
+    static int nextSize(Random random) {
+        if (sizes != null) {
+            int w = random.nextInt(weights[weights.length - 1]);
+            int i = 0;
+            while (weights[i] <= w) {
+                i++;
+            }
+            return sizes[i];
+        }
+        int range = maxSize - minSize;
+        if (range == 0) {
+            return minSize;
+        }
+        double v;
+        switch (dist) {
+            case "normal": // mean in the middle, 3 sigma at the range ends
+                v = 0.5 + random.nextGaussian() / 6;
+                break;
+            case "exp": // mean at the quarter of the range
+                v = -Math.log(1 - random.nextDouble()) / 4;
+                break;
+            default:
+                return minSize + random.nextInt(range + 1);
+        }
+        return minSize + (int) Math.round(Math.max(0, Math.min(1, v)) * range);
+    }
+
+    static class Sender extends Thread {
+
+        final UdpChannel uc;
+        final int stream;
+        final SocketAddress target;
+        long seq = 0;
+
+        Sender(UdpChannel uc, int stream, SocketAddress target) {
+            super("Sender-" + (stream & 0xFF));
+            this.uc = uc;
+            this.stream = stream;
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            Random random = new Random(stream);
+            ByteBuffer buf = ByteBuffer.allocate(Math.max(maxSize, HEADER_SIZE));
+            long intervalNanos = 1000000000L * threads / Math.max(1, rate);
+            long next = System.nanoTime();
+            while (running) {
+                long delay = next - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                    continue;
+                }
+                next += intervalNanos;
+                int size = nextSize(random);
+                buf.clear();
+                buf.putInt(stream).putLong(seq++);
+                buf.position(Math.max(size, HEADER_SIZE)).flip();
+                try {
+                    uc.send(buf, target);
+                    sent.incrementAndGet();
+                } catch (IOException e) {
+                    sendErrors.incrementAndGet();
+                }
+            }
+// the sent count of the stream: the sink counts the tail loss
+            for (int i = 0; i < FIN_REPEAT; i++) {
+                buf.clear();
+                buf.putInt(stream).putLong(FIN | seq).flip();
+                try {
+                    uc.send(buf, target);
+                } catch (IOException e) {
+                    sendErrors.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    static class Stream {
+
+        final int id;
+        long expected = 0; // next sequence number
+        long sent = -1; // reported by the generator
+        long received = 0;
+        long reordered = 0;
+
+        Stream(int id) {
+            this.id = id;
+        }
+    }
+
+// Stream ids are random per generator (low byte: sender thread):
+// streams are found by the id without allocation.
+    static class Sink implements UdpChannel.TimedHandler {
+
+        Stream[] streams = new Stream[16];
+        int streamCount = 0;
+        final LatencyHistogram interval = new LatencyHistogram();
+        final LatencyHistogram total = new LatencyHistogram();
+        long received = 0;
+        long bytes = 0;
+        long malformed = 0;
+
+        @Override
+        public void onStart(UdpChannel uc) {
+        }
+
+        @Override
+        public void onError(UdpChannel uc, Exception e) {
+            log("err: " + e);
+        }
+
+        @Override
+        public void onClose(UdpChannel uc) {
+        }
+
+        @Override
+        public void onPacket(UdpChannel uc, DatagramPacket dp) {
+        }
+
+        @Override
+        public synchronized void onPacket(UdpChannel uc, TimedPacket tp) {
+            DatagramPacket dp = tp.getPacket();
+            if (dp.getLength() < HEADER_SIZE) {
+                malformed++;
+                return;
+            }
+            byte[] data = dp.getData();
+            int off = dp.getOffset();
+            Stream s = stream(getInt(data, off));
+            long seq = getLong(data, off + 4);
+            if (seq < 0) { // FIN
+                s.sent = seq & ~FIN;
+                return;
+            }
+            if (seq >= s.expected) {
+                s.expected = seq + 1;
+            } else {
+                s.reordered++; // late or duplicate
+            }
+            s.received++;
+            received++;
+            bytes += dp.getLength();
+            if (tp.hasSendNanos()) {
+                interval.record(tp.getLatencyNanos());
+            }
+        }
+
+        Stream stream(int id) {
+            for (int i = 0; i < streamCount; i++) {
+                if (streams[i].id == id) {
+                    return streams[i];
+                }
+            }
+            if (streamCount == streams.length) {
+                streams = Arrays.copyOf(streams, streamCount * 2);
+            }
+            Stream s = new Stream(id);
+            streams[streamCount++] = s;
+            return s;
+        }
+
+        synchronized String report(double seconds, long prevReceived, long prevBytes) {
+            long expected = 0;
+            long streamReceived = 0;
+            long reordered = 0;
+            for (int i = 0; i < streamCount; i++) {
+                Stream s = streams[i];
+                expected += s.sent < 0 ? s.expected : s.sent; // sent: with the tail loss
+                streamReceived += s.received;
+                reordered += s.reordered;
+            }
+            long lost = Math.max(0, expected - streamReceived);
+            total.add(interval);
+            String line = format("rcv: %.0f pps %.2f MB/s total: %d lost: %d (%.4f%%) reordered: %d malformed: %d%n"
+                    + "  latency interval, us: %s%n  latency total, us:    %s",
+                    (received - prevReceived) / seconds,
+                    (bytes - prevBytes) / seconds / 1e6,
+                    received, lost, expected == 0 ? 0.0 : lost * 100.0 / expected,
+                    reordered, malformed,
+                    micros(interval), micros(total));
+            interval.reset();
+            return line;
+        }
+    }
+
+    static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    static long getLong(byte[] b, int off) {
+        return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xFFFFFFFFL);
+    }
+
+    static String micros(LatencyHistogram h) {
+        return format("p50: %.1f p90: %.1f p99: %.1f p99.9: %.1f max: %.1f",
+                h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+                h.getValueAtPercentile(99) / 1e3, h.getValueAtPercentile(99.9) / 1e3,
+                h.getMax() / 1e3);
+    }
+
+    static void parse(String arg) {
+        String[] kv = arg.split("=", 2);
+        String v = kv.length > 1 ? kv[1] : "";
+        switch (kv[0]) {
+            case "address": address = v; break;
+            case "port": port = Integer.parseInt(v); break;
+            case "intf": intf = v.isEmpty() ? null : v; break;
+            case "rate": rate = Integer.parseInt(v); break;
+            case "threads": threads = Integer.parseInt(v); break;
+            case "min": minSize = Integer.parseInt(v); break;
+            case "max": maxSize = Integer.parseInt(v); break;
+            case "dist": dist = v; break;
+            case "sizes": parseSizes(v); break;
+            case "duration": duration = Integer.parseInt(v); break;
+            case "report": report = Integer.parseInt(v); break;
+            default: throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+    }
+
+// size:weight,...
+    static void parseSizes(String v) {
+        String[] items = v.split(",");
+        sizes = new int[items.length];
+        weights = new int[items.length];
+        int total = 0;
+        for (int i = 0; i < items.length; i++) {
+            String[] sw = items[i].split(":", 2);
+            sizes[i] = Integer.parseInt(sw[0].trim());
+            total += sw.length > 1 ? Integer.parseInt(sw[1].trim()) : 1;
+            weights[i] = total; // cumulative
+        }
+        minSize = sizes[0];
+        maxSize = 0;
+        for (int size : sizes) {
+            minSize = Math.min(minSize, size);
+            maxSize = Math.max(maxSize, size);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String role = "both";
+        for (String arg : args) {
+            if (arg.indexOf('=') < 0) {
+                role = arg;
+            } else {
+                parse(arg);
+            }
+        }
+        maxSize = Math.max(maxSize, minSize);
+        if (sizes == null && !Arrays.asList("uniform", "normal", "exp").contains(dist)) {
+            throw new IllegalArgumentException("Unknown distribution: " + dist);
+        }
+        boolean gen = !role.equals("sink");
+        boolean sink = !role.equals("gen");
+
+        InetSocketAddress remote = new InetSocketAddress(InetAddress.getByName(address), port);
+        NetworkInterface ni = intf == null ? null : NetworkInterface.getByName(intf);
+        log(format("UdpChannel %s load test: %s %s rate: %d threads: %d size: %d-%d %s duration: %d",
+                UdpChannel.VERSION, role, remote, rate, threads, minSize, maxSize,
+                sizes == null ? dist : "weighted", duration));
+
+        Sink handler = new Sink();
+        UdpChannel rx = null;
+        UdpChannel tx = null;
+        Sender[] senders = new Sender[gen ? threads : 0];
+        try {
+            if (sink) {
+                rx = new UdpChannel(remote, ni).setTimestamped(true)
+                        .setPayloadSize(Math.max(maxSize, HEADER_SIZE) + UdpChannel.TIMESTAMP_SIZE);
+                rx.setReceiveBufferSize(4 * 1024 * 1024);
+                rx.setErrorPolicy(UdpChannel.ErrorPolicy.CONTINUE, UdpChannel.ErrorPolicy.CONTINUE);
+                if (rx.isMulticast()) {
+                    rx.joinGroup();
+                }
+                rx.receive(handler);
+            }
+            if (gen) {
+                tx = new UdpChannel(remote, ni).setTimestamped(true);
+                if (!tx.isBound()) { // multicast channel is bound by the constructor
+                    tx.bind(new InetSocketAddress(0));
+                }
+                int generator = new Random().nextInt() << 8;
+                for (int i = 0; i < senders.length; i++) {
+                    senders[i] = new Sender(tx, generator | i, remote);
+                    senders[i].start();
+                }
+            }
+
+            long started = System.nanoTime();
+            long last = started;
+            long prevSent = 0;
+            long prevReceived = 0;
+            long prevBytes = 0;
+            while (duration <= 0 || System.nanoTime() - started < duration * 1000000000L) {
+                Thread.sleep(report * 1000L);
+                long now = System.nanoTime();
+                double seconds = (now - last) / 1e9;
+                last = now;
+                log(format("%n[%.0f s]", (now - started) / 1e9));
+                if (gen) {
+                    long s = sent.get();
+                    log(format("snt: %.0f pps total: %d errors: %d", (s - prevSent) / seconds, s, sendErrors.get()));
+                    prevSent = s;
+                }
+                if (sink) {
+                    long r, b;
+                    synchronized (handler) {
+                        r = handler.received;
+                        b = handler.bytes;
+                    }
+                    log(handler.report(seconds, prevReceived, prevBytes));
+                    prevReceived = r;
+                    prevBytes = b;
+                }
+            }
+            running = false;
+            for (Sender s : senders) {
+                if (s != null) {
+                    s.join();
+                }
+            }
+            if (rx != null) {
+                rx.stopReceiving(true);
+                rx.awaitTermination(1000);
+                log("\nTotal:");
+                log(handler.report((System.nanoTime() - last) / 1e9, prevReceived, prevBytes));
+            }
+        } finally {
+            running = false;
+            if (rx != null) {
+                rx.close();
+            }
+            if (tx != null) {
+                tx.close();
+            }
+        }
+        log("\nCompleted");
+    }
+}
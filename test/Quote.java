@@ -0,0 +1,55 @@
+/**
+ * Generated by FlyweightGenerator from Quote.schema, do not edit
+ */
+import org.miktim.udpchannel.Flyweight;
+
+public final class Quote extends Flyweight {
+
+    public static final int ID = 0; // long
+    public static final int PRICE = 8; // double
+    public static final int QTY = 16; // int
+    public static final int SYMBOL = 20; // bytes
+    public static final int SYMBOL_LENGTH = 8;
+    public static final int SIZE = 28;
+
+    @Override
+    public int size() {
+        return SIZE;
+    }
+
+    public long id() {
+        return getLong(ID);
+    }
+
+    public Quote id(long v) {
+        putLong(ID, v);
+        return this;
+    }
+
+    public double price() {
+        return getDouble(PRICE);
+    }
+
+    public Quote price(double v) {
+        putDouble(PRICE, v);
+        return this;
+    }
+
+    public int qty() {
+        return getInt(QTY);
+    }
+
+    public Quote qty(int v) {
+        putInt(QTY, v);
+        return this;
+    }
+
+    public void getSymbol(byte[] dst) {
+        getBytes(SYMBOL, dst, 0, SYMBOL_LENGTH);
+    }
+
+    public Quote symbol(byte[] src) {
+        putBytes(SYMBOL, src, 0, SYMBOL_LENGTH);
+        return this;
+    }
+}